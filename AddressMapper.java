@@ -1,7 +1,7 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.Address;
-
-public interface AddressMapper extends BaseMapper<Address> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.Address;
+
+public interface AddressMapper extends BaseMapper<Address> {
+}
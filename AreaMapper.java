@@ -1,7 +1,7 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.Area;
-
-public interface AreaMapper extends BaseMapper<Area> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.Area;
+
+public interface AreaMapper extends BaseMapper<Area> {
+}
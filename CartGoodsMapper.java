@@ -1,10 +1,30 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.CartGoods;
-
-/**
- * 订单商品mapper
- */
-public interface CartGoodsMapper extends BaseMapper<CartGoods> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.CartGoods;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 订单商品mapper
+ */
+public interface CartGoodsMapper extends BaseMapper<CartGoods> {
+    // 批量新增订单商品
+    int insertBatch (@Param("list") List<CartGoods> list);
+    
+    /**
+     * 分批新增订单商品，每条INSERT最多chunkSize行，避免大批量导入时SQL超过max_allowed_packet
+     * @param list          订单商品
+     * @param chunkSize     每条INSERT的行数
+     * @return              新增的行数
+     */
+    default int insertInChunks (List<CartGoods> list, int chunkSize) {
+        int rows = 0;
+        for (int from = 0; from < list.size(); from += chunkSize) {
+            rows += insertBatch(list.subList(from, Math.min(from + chunkSize, list.size())));
+        }
+        
+        return rows;
+    }
+}
@@ -1,31 +1,79 @@
-package com.wlt.listener;
-
-import com.wlt.pojo.Orders;
-import com.wlt.service.OrdersService;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
-import org.apache.rocketmq.spring.core.RocketMQListener;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-
-/**
- * 延迟队列消费者
- */
-@Slf4j
-@Service
-@RocketMQMessageListener(topic = "check_orders_queue", consumerGroup = "check_orders_queue")
-public class CheckOrdersListener implements RocketMQListener<String> {
-    @Autowired
-    private OrdersService ordersService;
-    
-    @Override
-    public void onMessage (String orderId) {
-        // 查询订单
-        Orders orders = ordersService.findById(orderId);
-        // 如果此时订单状态还是未支付，则将状态改为交易关闭
-        if (orders.getStatus() == 1) {
-            orders.setStatus(6);
-            ordersService.update(orders);
-        }
-    }
-}
+package com.wlt.listener;
+
+import com.wlt.mapper.OrdersMapper;
+import com.wlt.service.OrdersCache;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 延迟队列消费者
+ * 大促结束后会集中收到大量检查消息，使用RocketMQ的批量消费，一次拉取的消息用一条UPDATE关闭，
+ * 不查询订单和订单商品，消息少的时候不等待攒批
+ * 写入成功后才确认这一批消息，写入失败时这一批的消息都会重新投递
+ */
+@Slf4j
+@Service
+@RocketMQMessageListener(topic = "check_orders_queue", consumerGroup = "check_orders_queue")
+public class CheckOrdersListener implements RocketMQListener<String>, RocketMQPushConsumerLifecycleListener {
+    // 每批最多的消息数量，一次拉取的数量和它相同
+    private static final int BATCH_SIZE = 500;
+    
+    @Autowired
+    private OrdersMapper ordersMapper;
+    @Autowired
+    private OrdersCache ordersCache;
+    
+    /**
+     * 启动前替换默认的逐条消费，改为批量消费
+     */
+    @Override
+    public void prepareStart (DefaultMQPushConsumer consumer) {
+        consumer.setConsumeMessageBatchMaxSize(BATCH_SIZE);
+        consumer.setPullBatchSize(BATCH_SIZE);
+        consumer.setMessageListener((MessageListenerConcurrently) (messages, context) -> {
+            // 消息内容就是订单id
+            Set<String> ids = new LinkedHashSet<>();
+            for (MessageExt message : messages) {
+                ids.add(new String(message.getBody(), StandardCharsets.UTF_8));
+            }
+            
+            try {
+                close(ids, messages.size());
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            } catch (Exception e) {
+                log.error("关闭未支付订单失败，{}条消息稍后重新投递", messages.size(), e);
+                return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+            }
+        });
+    }
+    
+    /**
+     * 批量消费时不会调用，保留给逐条消费的配置
+     */
+    @Override
+    public void onMessage (String orderId) {
+        close(Set.of(orderId), 1);
+    }
+    
+    /**
+     * 如果此时订单状态还是未支付，则将状态改为交易关闭
+     */
+    private void close (Set<String> ids, int messageCount) {
+        int count = ordersMapper.closeUnpaid(ids);
+        ordersCache.invalidateAll(ids);
+        log.info("检查订单{}条，关闭未支付订单{}条", messageCount, count);
+    }
+}
@@ -1,7 +1,7 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.City;
-
-public interface CityMapper extends BaseMapper<City> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.City;
+
+public interface CityMapper extends BaseMapper<City> {
+}
@@ -0,0 +1,323 @@
+package com.wlt.redis;
+
+import com.wlt.pojo.CartGoods;
+import com.wlt.pojo.Orders;
+import com.wlt.pojo.SeckillGoods;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀商品和订单的紧凑二进制序列化
+ * <p>
+ * 格式：魔数 + 格式版本 + 类编号 + 字段数 + 每个字段的（字段名、类型、值），值为null的字段不写
+ * 字段按名字匹配，读取时不认识的字段直接跳过，缺少的字段保持默认值，新旧版本的服务可以同时在线
+ * <p>
+ * 没有注册的类型（例如ZSet中的商品id）仍然使用JDK序列化，读取时根据魔数判断格式，
+ * JDK序列化的数据以0xACED开头，所以旧数据可以一直读取
+ * writeCompact为false时只读不写新格式，滚动发布时先全部升级到能读新格式的版本，再打开写入
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object>
+{
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final byte FORMAT_VERSION = 1;
+    
+    // 字段类型
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_DECIMAL = 4;
+    private static final byte TYPE_DATE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_LIST = 8;
+    private static final byte TYPE_OBJECT = 9;
+    private static final byte TYPE_JDK = 10;
+    
+    // 类编号，只能追加，不能修改已有的编号
+    private static final Map<Integer, Class<?>> CLASSES = Map.of(1, SeckillGoods.class,
+                                                                 2, Orders.class,
+                                                                 3, CartGoods.class);
+    private static final Map<Class<?>, Integer> CLASS_IDS = new ConcurrentHashMap<>();
+    static {
+        CLASSES.forEach((id, clazz) -> CLASS_IDS.put(clazz, id));
+    }
+    
+    // 类 -> 字段名 -> 字段
+    private static final Map<Class<?>, Map<String, Field>> FIELDS = new ConcurrentHashMap<>();
+    
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+    private final boolean writeCompact;
+    
+    /**
+     * @param writeCompact  是否使用新格式写入，为false时只使用JDK序列化写入
+     */
+    public CompactRedisSerializer (boolean writeCompact)
+    {
+        this.writeCompact = writeCompact;
+    }
+    
+    @Override
+    public byte[] serialize (Object value) throws SerializationException
+    {
+        if (value == null) {
+            return null;
+        }
+        if (!writeCompact || !CLASS_IDS.containsKey(value.getClass())) {
+            return jdkSerializer.serialize(value);
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            writeObject(out, value);
+            
+            return bytes.toByteArray();
+        } catch (IOException | IllegalAccessException e) {
+            throw new SerializationException("序列化失败：" + value.getClass().getName(), e);
+        }
+    }
+    
+    @Override
+    public Object deserialize (byte[] bytes) throws SerializationException
+    {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return jdkSerializer.deserialize(bytes);
+        }
+        
+        // 以魔数开头的一定是新格式，读取失败时直接抛异常，不再当作JDK序列化的数据
+        byte version = bytes.length > 1 ? bytes[1] : 0;
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new SerializationException(describe("不支持的格式版本", version));
+        }
+        
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2));
+            return readObject(in);
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            throw new SerializationException(describe("反序列化失败：" + e.getMessage(), version), e);
+        }
+    }
+    
+    private void writeObject (DataOutputStream out, Object value) throws IOException, IllegalAccessException
+    {
+        Map<String, Field> fields = fieldsOf(value.getClass());
+        
+        // 先收集不为null的字段
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            Object fieldValue = entry.getValue().get(value);
+            if (fieldValue != null) {
+                values.put(entry.getKey(), fieldValue);
+            }
+        }
+        
+        writeVarInt(out, CLASS_IDS.get(value.getClass()));
+        writeVarInt(out, values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+    
+    private Object readObject (DataInputStream in) throws IOException, ReflectiveOperationException
+    {
+        int classId = readVarInt(in);
+        Class<?> clazz = CLASSES.get(classId);
+        if (clazz == null) {
+            throw new SerializationException("未知的类编号：" + classId);
+        }
+        
+        Object value = clazz.getDeclaredConstructor().newInstance();
+        Map<String, Field> fields = fieldsOf(clazz);
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            Object fieldValue = readValue(in);
+            
+            // 不认识的字段是新版本加的，类型变化的字段无法赋值，都跳过，其它赋值失败的情况抛异常
+            Field field = fields.get(name);
+            if (field != null && isAssignable(field, fieldValue)) {
+                field.set(value, fieldValue);
+            }
+        }
+        
+        return value;
+    }
+    
+    /**
+     * 字段值的类型和字段的类型是否一致，基本类型的字段和对应的包装类型一致
+     */
+    private static boolean isAssignable (Field field, Object fieldValue)
+    {
+        Class<?> type = MethodType.methodType(field.getType()).wrap().returnType();
+        return type.isInstance(fieldValue);
+    }
+    
+    private static String describe (String message, byte version)
+    {
+        return String.format("%s，魔数：0x%02X，格式版本：%d", message, MAGIC, version);
+    }
+    
+    private void writeValue (DataOutputStream out, Object value) throws IOException, IllegalAccessException
+    {
+        if (value instanceof Long l) {
+            out.writeByte(TYPE_LONG);
+            writeVarLong(out, l);
+        } else if (value instanceof Integer i) {
+            out.writeByte(TYPE_INTEGER);
+            writeVarLong(out, i);
+        } else if (value instanceof String s) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF(s);
+        } else if (value instanceof BigDecimal d) {
+            out.writeByte(TYPE_DECIMAL);
+            writeVarInt(out, d.scale());
+            byte[] unscaled = d.unscaledValue().toByteArray();
+            writeVarInt(out, unscaled.length);
+            out.write(unscaled);
+        } else if (value instanceof Date d) {
+            out.writeByte(TYPE_DATE);
+            writeVarLong(out, d.getTime());
+        } else if (value instanceof Boolean b) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(b);
+        } else if (value instanceof Double d) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof List<?> list) {
+            out.writeByte(TYPE_LIST);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (CLASS_IDS.containsKey(value.getClass())) {
+            out.writeByte(TYPE_OBJECT);
+            writeObject(out, value);
+        } else {
+            // 其它类型使用JDK序列化嵌入
+            out.writeByte(TYPE_JDK);
+            byte[] bytes = jdkSerializer.serialize(value);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    private Object readValue (DataInputStream in) throws IOException, ReflectiveOperationException
+    {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_LONG:
+                return readVarLong(in);
+            case TYPE_INTEGER:
+                return (int) readVarLong(in);
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_DECIMAL:
+                int scale = readVarInt(in);
+                byte[] unscaled = new byte[readVarInt(in)];
+                in.readFully(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            case TYPE_DATE:
+                return new Date(readVarLong(in));
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_LIST:
+                int size = readVarInt(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case TYPE_OBJECT:
+                return readObject(in);
+            case TYPE_JDK:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return jdkSerializer.deserialize(bytes);
+            default:
+                throw new SerializationException("未知的字段类型：" + type);
+        }
+    }
+    
+    /**
+     * 类的所有字段，包括父类的字段，不包括static和transient字段
+     */
+    private static Map<String, Field> fieldsOf (Class<?> clazz)
+    {
+        return FIELDS.computeIfAbsent(clazz, c -> {
+            Map<String, Field> fields = new LinkedHashMap<>();
+            for (Class<?> current = c; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.putIfAbsent(field.getName(), field);
+                }
+            }
+            return fields;
+        });
+    }
+    
+    private static void writeVarInt (DataOutputStream out, int value) throws IOException
+    {
+        writeVarLong(out, value);
+    }
+    
+    private static int readVarInt (DataInputStream in) throws IOException
+    {
+        return (int) readVarLong(in);
+    }
+    
+    /**
+     * zigzag + varint编码，绝对值小的数字只占很少的字节
+     */
+    private static void writeVarLong (DataOutputStream out, long value) throws IOException
+    {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+    
+    private static long readVarLong (DataInputStream in) throws IOException
+    {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new SerializationException("varint格式错误");
+    }
+}
@@ -0,0 +1,40 @@
+package com.wlt.utils;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下游并发数限制
+ * 使用虚拟线程后请求线程不再是瓶颈，同时访问MySql、支付宝等下游的请求数需要单独限制，
+ * 超过限制的请求等待一小段时间，仍然拿不到许可时由调用方快速失败
+ */
+public class ConcurrencyLimiter {
+    private final Semaphore semaphore;
+    private final long timeout;
+    
+    /**
+     * @param permits   最大并发数
+     * @param timeout   等待许可的最长时间（毫秒）
+     */
+    public ConcurrencyLimiter (int permits, long timeout) {
+        this.semaphore = new Semaphore(permits);
+        this.timeout = timeout;
+    }
+    
+    /**
+     * 获取许可，获取成功后必须调用release
+     * @return  是否获取成功
+     */
+    public boolean tryAcquire () {
+        try {
+            return semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    public void release () {
+        semaphore.release();
+    }
+}
@@ -0,0 +1,112 @@
+package com.wlt.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内缓存，限制最大条数并且每条数据有过期时间
+ * 数据保存在ConcurrentHashMap中，读取时不加锁，只记录一下访问时间
+ * 写入后超过最大条数时由一个线程负责淘汰，其它线程不等待：先删除已经过期的数据，
+ * 还超过时按访问时间删除最久没有访问的数据，删到最大条数的90%，淘汰是近似的LRU，
+ * 淘汰期间条数可能短暂超过最大条数
+ * @param <K>   key
+ * @param <V>   value，不能为null
+ */
+public class LocalCache<K, V> {
+    private final int maximumSize;
+    private final long ttl;
+    private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+    // 只用来保证同一时间只有一个线程在淘汰，不阻塞读写
+    private final ReentrantLock evictLock = new ReentrantLock();
+    
+    /**
+     * @param maximumSize   最大条数
+     * @param ttl           过期时间（毫秒）
+     */
+    public LocalCache (int maximumSize, long ttl) {
+        this.maximumSize = maximumSize;
+        this.ttl = ttl;
+    }
+    
+    /**
+     * 查询缓存
+     * @param key   key
+     * @return      没有缓存或者已经过期时返回null
+     */
+    public V get (K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        
+        long now = System.currentTimeMillis();
+        if (now > entry.expireTime) {
+            // 只删除这一条过期的数据，期间被重新写入的新数据不受影响
+            map.remove(key, entry);
+            return null;
+        }
+        
+        entry.lastAccess = now;
+        return entry.value;
+    }
+    
+    public void put (K key, V value) {
+        long now = System.currentTimeMillis();
+        map.put(key, new Entry<>(value, now + ttl, now));
+        if (map.size() > maximumSize) {
+            evict();
+        }
+    }
+    
+    public void invalidate (K key) {
+        map.remove(key);
+    }
+    
+    public void invalidateAll () {
+        map.clear();
+    }
+    
+    /**
+     * 淘汰数据，已经有线程在淘汰时直接返回
+     */
+    private void evict () {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.删除已经过期的数据
+            long now = System.currentTimeMillis();
+            map.entrySet().removeIf(e -> now > e.getValue().expireTime);
+            if (map.size() <= maximumSize) {
+                return;
+            }
+            
+            // 2.按访问时间删除最久没有访问的数据
+            List<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(map.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            int excess = entries.size() - maximumSize * 9 / 10;
+            for (int i = 0; i < excess; i++) {
+                map.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+    
+    private static final class Entry<V> {
+        private final V value;
+        private final long expireTime;
+        // 最近一次访问的时间，多个线程并发更新，只需要大致准确
+        private volatile long lastAccess;
+        
+        private Entry (V value, long expireTime, long lastAccess) {
+            this.value = value;
+            this.expireTime = expireTime;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.wlt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 微批处理
+ * 调用方提交的数据先放入有界队列，后台线程攒够一批或者等待超时后一次性处理
+ * 队列满时submit会阻塞，调用方自然被限流；不能阻塞的调用方用offer，队列满时丢弃，由调用方自己兜底
+ * @param <T>   数据类型
+ */
+@Slf4j
+public class MicroBatcher<T> {
+    private final BlockingQueue<Item<T>> queue;
+    private final int maxBatchSize;
+    private final long maxWait;
+    private final Consumer<List<T>> handler;
+    private final Thread worker;
+    private volatile boolean running = true;
+    
+    /**
+     * @param name          后台线程的名字
+     * @param capacity      队列容量
+     * @param maxBatchSize  每批最多处理的条数
+     * @param maxWait       攒一批最多等待的时间（毫秒）
+     * @param handler       批处理方法，抛出异常时这一批的提交方都会收到异常
+     */
+    public MicroBatcher (String name, int capacity, int maxBatchSize, long maxWait, Consumer<List<T>> handler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWait = maxWait;
+        this.handler = handler;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+    
+    /**
+     * 提交数据，队列满时阻塞
+     * @param data  数据
+     * @return      这一批处理完成时完成
+     */
+    public CompletableFuture<Void> submit (T data) throws InterruptedException {
+        Item<T> item = new Item<>(data, new CompletableFuture<>());
+        queue.put(item);
+        
+        return item.future;
+    }
+    
+    /**
+     * 提交数据，队列满时不等待
+     * @param data  数据
+     * @return      是否放入队列，队列满时返回false
+     */
+    public boolean offer (T data) {
+        return queue.offer(new Item<>(data, new CompletableFuture<>()));
+    }
+    
+    /**
+     * 当前排队的条数
+     */
+    public int size () {
+        return queue.size();
+    }
+    
+    public void stop () {
+        running = false;
+        worker.interrupt();
+    }
+    
+    private void run () {
+        List<Item<T>> items = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                // 1.等待第一条数据
+                Item<T> first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                items.add(first);
+                
+                // 2.攒够一批或者超时
+                long deadline = System.currentTimeMillis() + maxWait;
+                while (items.size() < maxBatchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    Item<T> next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    items.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            
+            if (!items.isEmpty()) {
+                flush(items);
+                items.clear();
+            }
+        }
+    }
+    
+    private void flush (List<Item<T>> items) {
+        List<T> batch = new ArrayList<>(items.size());
+        for (Item<T> item : items) {
+            batch.add(item.data);
+        }
+        
+        try {
+            handler.accept(batch);
+            for (Item<T> item : items) {
+                item.future.complete(null);
+            }
+        } catch (RuntimeException e) {
+            log.error("批处理失败，条数：{}", batch.size(), e);
+            for (Item<T> item : items) {
+                item.future.completeExceptionally(e);
+            }
+        }
+    }
+    
+    private record Item<T>(T data, CompletableFuture<Void> future) {}
+}
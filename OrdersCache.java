@@ -0,0 +1,153 @@
+package com.wlt.service;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.wlt.pojo.CartGoods;
+import com.wlt.pojo.Orders;
+import com.wlt.utils.LocalCache;
+import com.wlt.utils.SingleFlight;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 订单详情缓存
+ * 本地缓存 -> Redis -> MySql，同一个订单的并发查询只有一个线程访问Redis和MySql
+ * 不存在的订单也缓存一个很短的时间，防止反复查询不存在的订单打到MySql
+ * <p>
+ * 订单修改后删除Redis缓存和本节点的本地缓存，其它节点的本地缓存最多延迟LOCAL_TTL毫秒
+ * <p>
+ * 缓存没有命中时先查MySql再写Redis，如果查询和写入之间订单被修改并删除了缓存，写入的就是旧订单，
+ * 所以删除缓存后延迟一段时间再删除一次，清掉这期间写入的旧订单；
+ * 未支付的订单随时会被支付或关闭，只在Redis中缓存很短的时间，即使两次删除都错过，旧状态也很快过期
+ * <p>
+ * 返回的订单是缓存中订单的副本，调用方可以修改
+ */
+@Component
+public class OrdersCache {
+    @Autowired
+    private RedisTemplate redisTemplate;
+    
+    private static final String KEY_PREFIX = "orders:detail:";
+    // 本地缓存时间，支付页面轮询订单状态时最多延迟这么久看到支付结果
+    private static final long LOCAL_TTL = 1000;
+    private static final int LOCAL_SIZE = 10000;
+    // Redis缓存时间，加上随机时间防止同时过期
+    private static final long REDIS_TTL = 1000 * 60 * 10;
+    private static final long REDIS_TTL_JITTER = 1000 * 60;
+    // 未支付订单的Redis缓存时间
+    private static final long UNPAID_TTL = 2000;
+    // 订单不存在的缓存时间，秒杀订单异步保存，不能缓存太久
+    private static final long NOT_FOUND_TTL = 2000;
+    // 第二次删除的延迟，要长于一次缓存加载的时间
+    private static final long DOUBLE_DELETE_DELAY = 1000;
+    // 等待其它线程加载同一个订单的最长时间，超时后自己加载
+    private static final long LOAD_WAIT = 1000;
+    // 订单不存在的标记
+    private static final String NOT_FOUND = "";
+    private static final Orders LOCAL_NOT_FOUND = new Orders();
+    
+    private final LocalCache<String, Orders> localCache = new LocalCache<>(LOCAL_SIZE, LOCAL_TTL);
+    private final SingleFlight<String, Orders> singleFlight = new SingleFlight<>(LOAD_WAIT);
+    private final ScheduledExecutorService doubleDeleteExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "orders-cache-double-delete");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @PreDestroy
+    public void destroy () {
+        doubleDeleteExecutor.shutdown();
+    }
+    
+    /**
+     * 查询订单
+     * @param id        订单id
+     * @param loader    缓存中没有时从MySql查询
+     * @return          订单的副本，不存在时返回null
+     */
+    public Orders get (String id, Supplier<Orders> loader) {
+        // 1.本地缓存
+        Orders orders = localCache.get(id);
+        if (orders == null) {
+            // 2.Redis和MySql，并发查询同一个订单时只查询一次
+            orders = singleFlight.execute(id, () -> load(id, loader));
+            localCache.put(id, orders);
+        }
+        
+        return orders == LOCAL_NOT_FOUND ? null : copy(orders);
+    }
+    
+    /**
+     * 订单修改后删除缓存，需要在事务提交之后调用，延迟DOUBLE_DELETE_DELAY毫秒后再删除一次
+     * @param id    订单id
+     */
+    public void invalidate (String id) {
+        invalidateAll(List.of(id));
+    }
+    
+    public void invalidateAll (Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<String> keys = ids.stream().map(id -> KEY_PREFIX + id).toList();
+        delete(ids, keys);
+        doubleDeleteExecutor.schedule(() -> delete(ids, keys), DOUBLE_DELETE_DELAY, TimeUnit.MILLISECONDS);
+    }
+    
+    private void delete (Collection<String> ids, List<String> keys) {
+        redisTemplate.delete(keys);
+        for (String id : ids) {
+            localCache.invalidate(id);
+        }
+    }
+    
+    private Orders load (String id, Supplier<Orders> loader) {
+        String key = KEY_PREFIX + id;
+        Object cached = redisTemplate.opsForValue().get(key);
+        if (cached instanceof Orders orders) {
+            return orders;
+        }
+        if (NOT_FOUND.equals(cached)) {
+            return LOCAL_NOT_FOUND;
+        }
+        
+        Orders orders = loader.get();
+        if (orders == null) {
+            redisTemplate.opsForValue().set(key, NOT_FOUND, NOT_FOUND_TTL, TimeUnit.MILLISECONDS);
+            
+            return LOCAL_NOT_FOUND;
+        }
+        long ttl = Integer.valueOf(1).equals(orders.getStatus())
+                   ? UNPAID_TTL
+                   : REDIS_TTL + ThreadLocalRandom.current().nextLong(REDIS_TTL_JITTER);
+        redisTemplate.opsForValue().set(key, orders, ttl, TimeUnit.MILLISECONDS);
+        
+        return orders;
+    }
+    
+    /**
+     * 复制订单和订单商品，调用方修改副本不影响缓存中的订单
+     */
+    private static Orders copy (Orders orders) {
+        Orders copy = BeanUtil.copyProperties(orders, Orders.class);
+        if (orders.getCartGoods() != null) {
+            List<CartGoods> cartGoods = new ArrayList<>(orders.getCartGoods().size());
+            for (CartGoods cartGood : orders.getCartGoods()) {
+                cartGoods.add(BeanUtil.copyProperties(cartGood, CartGoods.class));
+            }
+            copy.setCartGoods(cartGoods);
+        }
+        
+        return copy;
+    }
+}
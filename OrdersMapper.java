@@ -1,17 +1,24 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.Orders;
-import org.apache.ibatis.annotations.Param;
-
-import java.util.List;
-
-/**
- * 订单mapper
- */
-public interface OrdersMapper extends BaseMapper<Orders> {
-    // 查询订单详情
-    Orders findById (String id);
-    // 查询用户订单
-    List<Orders> findOrderByUserIdAndStatus (@Param("userId") Long userId, @Param("status") Integer status);
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.Orders;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 订单mapper
+ */
+public interface OrdersMapper extends BaseMapper<Orders> {
+    // 查询订单详情
+    Orders findById (String id);
+    // 查询用户订单
+    List<Orders> findOrderByUserIdAndStatus (@Param("userId") Long userId, @Param("status") Integer status);
+    // 批量新增订单，不包含订单商品
+    int insertBatch (@Param("list") List<Orders> list);
+    // 查询已经存在的订单id，用于消息重复投递时去重
+    List<String> findExistingIds (@Param("ids") Collection<String> ids);
+    // 批量关闭未支付的订单，已经支付的订单不会被修改
+    int closeUnpaid (@Param("ids") Collection<String> ids);
+}
@@ -0,0 +1,32 @@
+package com.wlt.pojo;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 待发送的订单消息
+ * 和订单在同一个事务中保存，由OrdersOutboxDispatcher异步发送，发送成功后删除
+ */
+@Data
+@TableName("bz_orders_outbox")
+public class OrdersOutbox implements Serializable {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    
+    private String orderId;         // 订单id，即消息内容
+    
+    private String topic;           // 消息队列
+    
+    private Integer delayLevel;     // 延时等级
+    
+    private Integer retryCount;     // 已经重试的次数
+    
+    private Date nextRetryTime;     // 下次发送时间
+    
+    private Date createTime;        // 创建时间
+}
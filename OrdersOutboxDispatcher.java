@@ -0,0 +1,225 @@
+package com.wlt.service;
+
+import com.wlt.mapper.OrdersOutboxMapper;
+import com.wlt.pojo.OrdersOutbox;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单消息发送
+ * 下单时只把消息保存到bz_orders_outbox，不访问RocketMQ，这里定时领取到了发送时间的消息批量异步发送，
+ * 发送成功后删除，发送失败的按重试次数推迟下次发送时间
+ * <p>
+ * 领取时在一个事务中用FOR UPDATE SKIP LOCKED锁定一批消息，再把下次发送时间推迟一个租约，
+ * 多个节点同时领取时各自取到不同的消息，节点宕机时租约结束后由其它节点重新发送
+ * <p>
+ * 发送不等待回调，回调只把结果放入队列，下一次定时任务开始时再删除发送成功的消息、推迟发送失败的消息，
+ * 不会长时间占用共用的定时任务线程；正在发送的消息太多时暂停领取，RocketMQ变慢时消息留在表中
+ * <p>
+ * 消息至少发送一次，租约结束时还没有回调或者删除失败时，同一个订单可能收到多条检查消息，
+ * 检查消息只关闭未支付的订单，重复消费没有影响
+ * <p>
+ * 有MeterRegistry时（引入spring-boot-starter-actuator）注册积压时间、正在发送的数量、发送成功和失败的次数
+ */
+@Slf4j
+@Component
+public class OrdersOutboxDispatcher {
+    @Autowired
+    private OrdersOutboxMapper ordersOutboxMapper;
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectProvider<MeterRegistry> meterRegistry;
+    
+    public static final String CHECK_ORDERS_QUEUE = "check_orders_queue";
+    // 检查订单是否支付的延时等级
+    // 延时等级：1~16分别是：1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h
+    private static final int CHECK_ORDERS_DELAY_LEVEL = 12;
+    // 每批发送的消息数量
+    private static final int BATCH_SIZE = 200;
+    // 发送超时时间
+    private static final long SEND_TIMEOUT = 15000;
+    // 领取的租约，要长于发送超时时间，租约结束前没有删除的消息会被重新发送
+    private static final long LEASE_TIME = SEND_TIMEOUT * 2;
+    // 最多同时发送的消息数量，超过时不再领取
+    private static final int MAX_IN_FLIGHT = BATCH_SIZE * 10;
+    // 最长重试间隔
+    private static final long MAX_RETRY_INTERVAL = 1000 * 60;
+    // 积压超过这个时间时打印警告
+    private static final long LAG_WARN_THRESHOLD = 1000 * 30;
+    
+    // 发送成功、等待删除的消息id
+    private final Queue<Long> sentIds = new ConcurrentLinkedQueue<>();
+    // 发送失败、等待推迟的消息
+    private final Queue<OrdersOutbox> failed = new ConcurrentLinkedQueue<>();
+    // 已经发送、还没有回调的消息数量
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // 最近一次领取时最早的消息已经等待的时间，没有领取到消息时为0
+    private final AtomicLong lag = new AtomicLong();
+    // 发送成功和失败的次数
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    
+    @PostConstruct
+    public void init () {
+        meterRegistry.ifAvailable(registry -> {
+            Gauge.builder("orders.outbox.lag", lag, AtomicLong::get)
+                .description("最早的待发送订单消息已经等待的时间")
+                .baseUnit("milliseconds")
+                .register(registry);
+            Gauge.builder("orders.outbox.in.flight", inFlight, AtomicInteger::get)
+                .description("已经发送、还没有回调的订单消息数量")
+                .register(registry);
+            FunctionCounter.builder("orders.outbox.sent", sentCount, AtomicLong::get)
+                .description("发送成功的订单消息数量")
+                .register(registry);
+            FunctionCounter.builder("orders.outbox.failed", failedCount, AtomicLong::get)
+                .description("发送失败的订单消息数量")
+                .register(registry);
+        });
+    }
+    
+    /**
+     * 创建检查订单是否支付的消息
+     * @param orderId   订单id
+     * @return          待发送的消息，需要和订单在同一个事务中保存
+     */
+    public static OrdersOutbox checkOrders (String orderId) {
+        Date now = new Date();
+        OrdersOutbox outbox = new OrdersOutbox();
+        outbox.setOrderId(orderId);
+        outbox.setTopic(CHECK_ORDERS_QUEUE);
+        outbox.setDelayLevel(CHECK_ORDERS_DELAY_LEVEL);
+        outbox.setRetryCount(0);
+        outbox.setNextRetryTime(now);
+        outbox.setCreateTime(now);
+        
+        return outbox;
+    }
+    
+    @Scheduled (fixedDelay = 200)
+    public void dispatch () {
+        // 1.处理上一次发送的结果
+        applyResults();
+        
+        boolean more;
+        do {
+            if (inFlight.get() >= MAX_IN_FLIGHT) {
+                return;
+            }
+            
+            // 2.领取到了发送时间的消息
+            List<OrdersOutbox> due = claim();
+            if (due.isEmpty()) {
+                lag.set(0);
+                return;
+            }
+            
+            // 3.记录积压时间，过长时打印警告
+            long oldest = due.stream().mapToLong(outbox -> outbox.getCreateTime().getTime()).min().getAsLong();
+            long waited = System.currentTimeMillis() - oldest;
+            lag.set(waited);
+            if (waited > LAG_WARN_THRESHOLD) {
+                log.warn("订单消息积压，最早的消息已经等待{}毫秒", waited);
+            }
+            
+            // 4.发送，取满了说明可能还有消息，继续领取
+            send(due);
+            more = due.size() == BATCH_SIZE;
+        } while (more);
+    }
+    
+    /**
+     * 在一个事务中锁定一批到了发送时间的消息，并把下次发送时间推迟到租约结束
+     * @return  领取到的消息
+     */
+    private List<OrdersOutbox> claim () {
+        return transactionTemplate.execute(status -> {
+            Date now = new Date();
+            List<OrdersOutbox> due = ordersOutboxMapper.findDueForUpdate(now, BATCH_SIZE);
+            if (!due.isEmpty()) {
+                List<Long> ids = due.stream().map(OrdersOutbox::getId).toList();
+                ordersOutboxMapper.lease(ids, new Date(now.getTime() + LEASE_TIME));
+            }
+            return due;
+        });
+    }
+    
+    /**
+     * 异步发送一批消息，不等待回调，回调把结果放入队列
+     * @param due   领取到的消息
+     */
+    private void send (List<OrdersOutbox> due) {
+        for (OrdersOutbox outbox : due) {
+            inFlight.incrementAndGet();
+            try {
+                rocketMQTemplate.asyncSend(outbox.getTopic(),
+                                           MessageBuilder.withPayload(outbox.getOrderId()).build(),
+                                           new SendCallback() {
+                                               @Override
+                                               public void onSuccess (SendResult sendResult) {
+                                                   sentIds.add(outbox.getId());
+                                                   sentCount.incrementAndGet();
+                                                   inFlight.decrementAndGet();
+                                               }
+                                               
+                                               @Override
+                                               public void onException (Throwable e) {
+                                                   log.error("订单消息发送失败，订单id：{}", outbox.getOrderId(), e);
+                                                   failed.add(outbox);
+                                                   failedCount.incrementAndGet();
+                                                   inFlight.decrementAndGet();
+                                               }
+                                           },
+                                           SEND_TIMEOUT,
+                                           outbox.getDelayLevel());
+            } catch (RuntimeException e) {
+                log.error("订单消息发送失败，订单id：{}", outbox.getOrderId(), e);
+                failed.add(outbox);
+                failedCount.incrementAndGet();
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * 删除发送成功的消息，推迟发送失败的消息，失败时留到租约结束后重新发送
+     */
+    private void applyResults () {
+        List<Long> ids = new ArrayList<>();
+        for (Long id = sentIds.poll(); id != null; id = sentIds.poll()) {
+            ids.add(id);
+        }
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            ordersOutboxMapper.deleteBatchIds(ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())));
+        }
+        
+        // 发送失败的消息推迟下次发送时间，重试间隔每次翻倍
+        for (OrdersOutbox outbox = failed.poll(); outbox != null; outbox = failed.poll()) {
+            long interval = Math.min(1000L << Math.min(outbox.getRetryCount(), 16), MAX_RETRY_INTERVAL);
+            ordersOutboxMapper.retryLater(outbox.getId(), new Date(System.currentTimeMillis() + interval));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.OrdersOutbox;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 待发送订单消息mapper
+ */
+public interface OrdersOutboxMapper extends BaseMapper<OrdersOutbox> {
+    // 批量新增待发送消息
+    int insertBatch (@Param("list") List<OrdersOutbox> list);
+    // 查询并锁定到了发送时间的消息，跳过其它事务已经锁定的消息
+    List<OrdersOutbox> findDueForUpdate (@Param("now") Date now, @Param("limit") int limit);
+    // 领取消息，把下次发送时间推迟到租约结束，租约期间其它节点不会再取到
+    int lease (@Param("ids") List<Long> ids, @Param("leaseTime") Date leaseTime);
+    // 发送失败，增加重试次数并推迟下次发送时间
+    int retryLater (@Param("id") Long id, @Param("nextRetryTime") Date nextRetryTime);
+}
@@ -1,7 +1,7 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.Payment;
-
-public interface PaymentMapper extends BaseMapper<Payment> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.Payment;
+
+public interface PaymentMapper extends BaseMapper<Payment> {
+}
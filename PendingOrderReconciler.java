@@ -0,0 +1,87 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 未支付订单补偿回退
+ * 过期事件和过期时间索引都可能漏掉订单（节点宕机、Redis主从切换丢失了索引），
+ * 这里定期用SCAN遍历所有未支付订单记录，记录中的过期时间已经过去的说明回退没有执行，重新回退一次
+ * <p>
+ * 每个记录只有一个调用方能取到，和过期监听、PendingOrderSweeper同时处理同一个订单时库存也只回退一次
+ * 每次扫描只由一个节点执行，节点数增加时扫描的工作量不会增加
+ * <p>
+ * 使用限制：
+ * 1.只能找回记录还在的订单，记录比订单晚PENDING_TTL - ORDER_TTL（目前为2分钟）过期，
+ *   订单过期后这段时间内没有扫描到的就找不回来了，所以seckill.reconcileInterval要明显小于2分钟
+ * 2.SCAN的代价和Redis中key的总数成正比，不只是未支付订单的数量，每个扫描间隔遍历一次整个keyspace，
+ *   key很多时要调大扫描间隔或者只依赖PendingOrderSweeper，两者之间需要权衡
+ * 3.过期时间索引完整时PendingOrderSweeper已经能回退所有订单，这里只处理索引丢失的情况
+ */
+@Slf4j
+@Component
+public class PendingOrderReconciler
+{
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    // 本轮扫描由哪个节点执行
+    private static final String RECONCILE_LOCK_KEY = "seckill:rollback:reconcile";
+    
+    @Scheduled (fixedDelayString = "${seckill.reconcile-interval:60000}")
+    public void reconcile () {
+        // 抢到的节点在一个扫描间隔内独占，不主动释放，其它节点本轮跳过
+        long interval = seckillConfig.getReconcileInterval();
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(RECONCILE_LOCK_KEY, "1", interval, TimeUnit.MILLISECONDS))) {
+            return;
+        }
+        
+        int batchSize = seckillConfig.getSweepBatchSize();
+        ScanOptions options = ScanOptions.scanOptions()
+                                         .match(SeckillStockEngine.PENDING_KEY_PREFIX + "{*")
+                                         .count(batchSize)
+                                         .build();
+        Set<Long> goodsIds = new HashSet<>();
+        List<String> pendingKeys = new ArrayList<>(batchSize);
+        int total = 0;
+        
+        // 1.遍历未支付订单记录，攒够一批交给脚本判断是否过期并回退
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                pendingKeys.add(cursor.next());
+                if (pendingKeys.size() == batchSize) {
+                    total += seckillStockEngine.reconcile(pendingKeys, System.currentTimeMillis(), goodsIds);
+                    pendingKeys.clear();
+                }
+            }
+        }
+        total += seckillStockEngine.reconcile(pendingKeys, System.currentTimeMillis(), goodsIds);
+        
+        // 2.通知所有节点清除售罄标记
+        for (Long goodsId : goodsIds) {
+            soldOutCache.publishRestock(goodsId);
+        }
+        
+        if (total > 0) {
+            log.warn("补偿回退过期订单的库存，订单数：{}", total);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 未支付订单过期回退库存
+ * 下单时未支付订单记录的key按过期时间加入到ZSet中，每秒扫描一次已经过期的订单，按批取出并回退库存
+ * 每个未支付订单记录只有一个调用方能取到，多个节点同时扫描时每个订单也只会被一个节点回退一次
+ * <p>
+ * Redis的过期事件是惰性删除时才发出的，并且不保证送达，只作为及时回退的补充，由这里保证一定会回退
+ */
+@Slf4j
+@Component
+public class PendingOrderSweeper
+{
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    @Scheduled (fixedDelay = 1000)
+    public void sweep () {
+        int batchSize = seckillConfig.getSweepBatchSize();
+        Set<Long> goodsIds = new HashSet<>();
+        
+        // 一批取满了说明可能还有过期的订单，继续取
+        int total = 0;
+        int count;
+        do {
+            count = seckillStockEngine.sweepExpired(System.currentTimeMillis(), batchSize, goodsIds);
+            total += count;
+        } while (count == batchSize);
+        
+        // 通知所有节点清除售罄标记
+        for (Long goodsId : goodsIds) {
+            soldOutCache.publishRestock(goodsId);
+        }
+        
+        if (total > 0) {
+            log.info("回退过期订单的库存，订单数：{}", total);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.wlt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dubbo服务的线程池
+ * 开启虚拟线程时每个请求一个虚拟线程，阻塞在Redis、MySql和HTTP调用上时不占用平台线程，
+ * 运行环境不支持虚拟线程（JDK 21以下）时退回普通线程池
+ * 虚拟线程不限制并发数，访问下游时需要用ConcurrencyLimiter限制
+ * <p>
+ * 普通线程池和Dubbo默认的fixed线程池一样使用有界队列，线程和队列都满时直接拒绝，
+ * Dubbo收到RejectedExecutionException后给调用方返回线程池耗尽的错误，调用方可以重试其它节点，
+ * 不会在队列中越积越多直到调用方超时
+ */
+@Slf4j
+public class ProviderExecutors {
+    
+    private ProviderExecutors () {
+    }
+    
+    /**
+     * 创建线程池
+     * @param name              线程名前缀
+     * @param virtualThreads    是否使用虚拟线程
+     * @param threads           不使用虚拟线程时的线程数
+     * @param queues            不使用虚拟线程时的队列长度，0表示不排队，线程都在忙时直接拒绝
+     * @return                  线程池
+     */
+    public static ExecutorService create (String name, boolean virtualThreads, int threads, int queues) {
+        if (virtualThreads) {
+            ExecutorService executor = virtualThreadExecutor(name);
+            if (executor != null) {
+                log.info("{}使用虚拟线程", name);
+                return executor;
+            }
+            log.warn("运行环境不支持虚拟线程，{}使用普通线程池，线程数：{}", name, threads);
+        }
+        
+        AtomicInteger index = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        
+        BlockingQueue<Runnable> queue = queues > 0 ? new ArrayBlockingQueue<>(queues) : new SynchronousQueue<>();
+        RejectedExecutionHandler rejectedHandler = (runnable, executor) -> {
+            throw new RejectedExecutionException(name + "线程池已满，线程数：" + threads + "，队列长度：" + queues);
+        };
+        
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, threadFactory, rejectedHandler);
+    }
+    
+    /**
+     * 通过反射创建虚拟线程池，代码按JDK 17编译，在JDK 21以上运行时才能创建
+     * 相当于 Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory())
+     */
+    private static ExecutorService virtualThreadExecutor (String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
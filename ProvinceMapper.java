@@ -1,7 +1,7 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.Province;
-
-public interface ProvinceMapper extends BaseMapper<Province> {
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.Province;
+
+public interface ProvinceMapper extends BaseMapper<Province> {
+}
@@ -0,0 +1,66 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 配置RedisTemplate
+ */
+@Configuration
+public class RedisConfig
+{
+    /**
+     * key统一使用字符串序列化，value使用紧凑二进制序列化，同时兼容读取JDK序列化的旧数据
+     * 订单id等key会被Lua脚本和过期监听直接以字符串形式读写，所以不能在运行时再去修改key的序列化方式
+     * @param redisConnectionFactory    Redis连接工厂
+     * @param seckillConfig             秒杀配置，compactCodec决定是否用新格式写入
+     * @return                          RedisTemplate
+     */
+    @Bean
+    public RedisTemplate<Object, Object> redisTemplate (RedisConnectionFactory redisConnectionFactory,
+                                                        SeckillConfig seckillConfig)
+    {
+        CompactRedisSerializer valueSerializer = new CompactRedisSerializer(seckillConfig.isCompactCodec());
+        
+        RedisTemplate<Object, Object> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.setHashValueSerializer(valueSerializer);
+        
+        return redisTemplate;
+    }
+    
+    /**
+     * 异步接口使用的非阻塞模板，序列化方式和redisTemplate完全一致，两边读写的是同一份数据
+     * Hash的field在redisTemplate中使用默认的JDK序列化，这里也要显式指定
+     * @param reactiveRedisConnectionFactory    Redis连接工厂
+     * @param seckillConfig                     秒杀配置
+     * @return                                  ReactiveRedisTemplate
+     */
+    @Bean
+    public ReactiveRedisTemplate<String, Object> reactiveRedisTemplate (ReactiveRedisConnectionFactory reactiveRedisConnectionFactory,
+                                                                        SeckillConfig seckillConfig)
+    {
+        CompactRedisSerializer valueSerializer = new CompactRedisSerializer(seckillConfig.isCompactCodec());
+        JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+        
+        RedisSerializationContext<String, Object> context = RedisSerializationContext
+            .<String, Object>newSerializationContext(jdkSerializer)
+            .key(new StringRedisSerializer())
+            .value(valueSerializer)
+            .hashKey(jdkSerializer)
+            .hashValue(valueSerializer)
+            .build();
+        
+        return new ReactiveRedisTemplate<>(reactiveRedisConnectionFactory, context);
+    }
+}
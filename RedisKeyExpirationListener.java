@@ -1,64 +1,101 @@
-package com.wlt.redis;
-
-import com.wlt.pojo.Orders;
-import com.wlt.pojo.SeckillGoods;
-import com.wlt.service.SeckillService;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.connection.Message;
-import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.listener.KeyExpirationEventMessageListener;
-import org.springframework.data.redis.listener.RedisMessageListenerContainer;
-import org.springframework.stereotype.Component;
-
-/**
- * Redis监听类继承KeyExpirationEventMessageListener
- */
-@Component
-public class RedisKeyExpirationListener extends KeyExpirationEventMessageListener
-{
-    @Autowired
-    private RedisTemplate redisTemplate;
-    @Autowired
-    private SeckillService seckillService;
-    
-    /**
-     * Creates new {@link MessageListener} for {@code __keyevent@*__:expired} messages.
-     *
-     * @param listenerContainer
-     *     must not be {@literal null}.
-     */
-    public RedisKeyExpirationListener (RedisMessageListenerContainer listenerContainer)
-    {
-        super(listenerContainer);
-    }
-    
-    /**
-     * 具体的监听方法
-     * 订单过期后，交易关闭，回退商品库存
-     * @param message message must not be {@literal null}.
-     * @param pattern pattern matching the channel (if specified) - can be {@literal null}.
-     */
-    @Override
-    public void onMessage (Message message, byte[] pattern)
-    {
-        // 1.获取失效的key，即订单id
-        String expiredKey = message.toString();
-        
-        // 2.拿到复制订单的信息
-        Orders order = (Orders) redisTemplate.opsForValue().get(expiredKey + "_copy");
-        Long goodId = order.getCartGoods().get(0).getGoodId();  // 产品id
-        Integer num = order.getCartGoods().get(0).getNum();     // 产品数量
-        
-        // 3.查询秒杀商品
-        SeckillGoods seckillGoods = seckillService.findSeckillGoodsByRedis(goodId);
-        
-        // 4.回退库存
-        seckillGoods.setStockCount(seckillGoods.getStockCount() + num);
-        redisTemplate.boundHashOps("seckillGoods").put(goodId, seckillGoods);
-        
-        // 5.删除复制订单数据
-        redisTemplate.delete(expiredKey + "_copy");
-        
-    }
-}
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import com.wlt.utils.MicroBatcher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.KeyExpirationEventMessageListener;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Redis监听类继承KeyExpirationEventMessageListener
+ * 过期事件不保证送达，这里只负责及时回退，漏掉的订单由PendingOrderSweeper按过期时间回退
+ * <p>
+ * 秒杀结束时大量订单在几秒内同时过期，过期的订单先攒成一批，同一段库存的订单在一个脚本中取出记录并加回库存，
+ * 各段的脚本在一次往返中发送，每个商品也只广播一次补货
+ * 过期事件会发给每个订阅的节点，各节点提交的同一个订单只有一个能取到记录，其余的直接跳过
+ */
+@Slf4j
+@Component
+public class RedisKeyExpirationListener extends KeyExpirationEventMessageListener
+{
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    
+    // 过期订单的未支付订单记录，队列满时丢弃，不阻塞监听线程
+    private final MicroBatcher<String> batcher;
+    
+    /**
+     * Creates new {@link MessageListener} for {@code __keyevent@*__:expired} messages.
+     *
+     * @param listenerContainer
+     *     must not be {@literal null}.
+     */
+    public RedisKeyExpirationListener (RedisMessageListenerContainer listenerContainer, SeckillConfig seckillConfig)
+    {
+        super(listenerContainer);
+        this.batcher = new MicroBatcher<>("expired-orders-returner",
+                                          seckillConfig.getSweepBatchSize() * 20,
+                                          seckillConfig.getSweepBatchSize(),
+                                          seckillConfig.getExpiredBatchWait(),
+                                          this::returnStock);
+    }
+    
+    /**
+     * 具体的监听方法
+     * 订单过期后，交易关闭，回退商品库存
+     * @param message message must not be {@literal null}.
+     * @param pattern pattern matching the channel (if specified) - can be {@literal null}.
+     */
+    @Override
+    public void onMessage (Message message, byte[] pattern)
+    {
+        // 1.获取失效的key，只处理订单过期标记，标记中带有未支付订单记录所在的段
+        String pendingKey = SeckillStockEngine.pendingKeyOfExpired(message.toString());
+        if (pendingKey == null) {
+            return;
+        }
+        
+        // 2.放入队列，由后台线程批量回退
+        // 监听线程同时负责分发其它订阅的消息，不能阻塞，队列满时丢弃，和失败的一样由PendingOrderSweeper按过期时间回退
+        if (!batcher.offer(pendingKey)) {
+            log.debug("过期订单队列已满，交给PendingOrderSweeper回退：{}", pendingKey);
+        }
+    }
+    
+    /**
+     * 回退一批过期订单的库存，库存计数器原子自增，不会和正在下单的用户产生覆盖
+     * 取不到未支付订单记录的说明不是秒杀订单过期，或者已经被其它节点处理
+     * @param pendingKeys   过期订单的未支付订单记录
+     */
+    private void returnStock (List<String> pendingKeys)
+    {
+        Set<Long> goodsIds = new HashSet<>();
+        int count = seckillStockEngine.returnStock(pendingKeys, goodsIds);
+        
+        // 通知所有节点清除售罄标记
+        for (Long goodsId : goodsIds) {
+            soldOutCache.publishRestock(goodsId);
+        }
+        
+        if (count > 0) {
+            log.info("回退过期订单的库存，订单数：{}", count);
+        }
+    }
+    
+    @Override
+    public void destroy () throws Exception
+    {
+        super.destroy();
+        batcher.stop();
+    }
+}
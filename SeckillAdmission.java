@@ -0,0 +1,139 @@
+package com.wlt.service;
+
+import com.wlt.SeckillConfig;
+import com.wlt.redis.SeckillBloomFilter;
+import com.wlt.redis.SeckillGoodsCatalog;
+import com.wlt.redis.SeckillStockEngine;
+import com.wlt.redis.SoldOutCache;
+import com.wlt.utils.LocalCache;
+import com.wlt.utils.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀下单准入
+ * 每个商品按令牌桶限制进入的速率，同时下单的人数不超过剩余库存的seckill.admissionFactor倍，
+ * 1000件库存没有必要让100万人同时扣减，超出的请求直接拒绝，不等待
+ * <p>
+ * 只有布隆过滤器和商品目录中都存在的商品才创建令牌桶和计数器，随机的商品id不会让状态无限增长，
+ * 秒杀结束时由retire删除
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SeckillBloomFilter seckillBloomFilter;
+    @Autowired
+    private SeckillGoodsCatalog seckillGoodsCatalog;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    // 剩余库存在本地缓存的时间
+    private static final long STOCK_CACHE_TTL = 200;
+    
+    // 商品id -> 令牌桶和正在下单的人数
+    private final Map<Long, Gate> gates = new ConcurrentHashMap<>();
+    private LocalCache<Long, Integer> stockCache;
+    
+    @PostConstruct
+    public void init () {
+        stockCache = new LocalCache<>(seckillConfig.getNearCacheSize(), STOCK_CACHE_TTL);
+    }
+    
+    /**
+     * 进入下单，返回true时下单结束后必须调用leave
+     * 不在商品目录中的商品不限流，由下单流程自己判断商品是否存在
+     * @param goodsId   秒杀商品id
+     * @return          是否允许下单，已售罄、限流或者同时下单的人数太多时返回false
+     */
+    public boolean tryEnter (Long goodsId) {
+        // 1.已经售罄的直接拒绝
+        if (soldOutCache.isSoldOut(goodsId)) {
+            return false;
+        }
+        
+        // 2.不存在的商品不创建状态
+        Gate gate = gates.get(goodsId);
+        if (gate == null) {
+            if (!seckillBloomFilter.mightContain(goodsId) || seckillGoodsCatalog.get(goodsId) == null) {
+                return true;
+            }
+            gate = gates.computeIfAbsent(goodsId, id -> new Gate(new TokenBucket(seckillConfig.getAdmissionRate(),
+                                                                                 seckillConfig.getAdmissionRate()),
+                                                                 new AtomicInteger()));
+        }
+        
+        // 3.令牌桶限流
+        if (!gate.bucket().tryAcquire()) {
+            return false;
+        }
+        
+        // 4.同时下单的人数不超过剩余库存的若干倍
+        Integer stock = remainingStock(goodsId);
+        if (stock != null && stock <= 0) {
+            return false;
+        }
+        int limit = stock == null
+                    ? seckillConfig.getAdmissionQueueSize()
+                    : (int) Math.min(seckillConfig.getAdmissionQueueSize(), (long) stock * seckillConfig.getAdmissionFactor());
+        if (gate.entered().incrementAndGet() > limit) {
+            gate.entered().decrementAndGet();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * 下单结束
+     * @param goodsId   秒杀商品id
+     */
+    public void leave (Long goodsId) {
+        Gate gate = gates.get(goodsId);
+        if (gate != null) {
+            gate.entered().decrementAndGet();
+        }
+    }
+    
+    /**
+     * 秒杀结束，删除商品的令牌桶和计数器
+     * @param goodsId   秒杀商品id
+     */
+    public void retire (Long goodsId) {
+        gates.remove(goodsId);
+        stockCache.invalidate(goodsId);
+    }
+    
+    /**
+     * 剩余库存，本地缓存一小段时间，没有库存计数器时返回null
+     */
+    private Integer remainingStock (Long goodsId) {
+        Integer stock = stockCache.get(goodsId);
+        if (stock == null) {
+            stock = seckillStockEngine.getStock(List.of(goodsId)).get(goodsId);
+            if (stock != null) {
+                stockCache.put(goodsId, stock);
+            }
+        }
+        
+        return stock;
+    }
+    
+    /**
+     * 一个商品的准入状态
+     * @param bucket    令牌桶
+     * @param entered   正在下单的人数
+     */
+    private record Gate(TokenBucket bucket, AtomicInteger entered) {}
+}
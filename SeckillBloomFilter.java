@@ -0,0 +1,407 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 秒杀商品布隆过滤器，防止查询不存在的商品时穿透到MySql
+ * <p>
+ * 位数组大小和哈希函数个数根据预计商品数量和误判率计算，用商品id的两个64位哈希值组合出所有位置
+ * <p>
+ * 过滤器分代保存，定期用正在秒杀的商品重新生成新的一代，生成完成后再切换，
+ * 已经结束的商品随着换代被淘汰，生成期间新加入的商品同时写入新旧两代，切换前后都不会漏判
+ * <p>
+ * 加入商品时先读取当前代和正在生成的代再写入，如果读取时还没有登记正在生成的代，这个商品只写入了旧的一代，
+ * 所以加入的商品先记录到最近加入的集合中，生成的一方在切换前把集合中的商品也写入新的一代：
+ * 没有读到正在生成的代的加入操作，记录一定发生在登记之前，切换前一定能取到
+ * <p>
+ * seckill.bloomShared为true时过滤器保存在Redis的bitmap中，所有节点共用一份，重启后不需要重新生成，
+ * 当前代的编号和参数保存在seckill:bloom:current中，格式为 编号:位数:哈希函数个数；
+ * 为false时保存在本节点内存中，启动后第一次生成之前不拦截任何请求
+ */
+@Slf4j
+@Component
+public class SeckillBloomFilter
+{
+    // 当前代，格式为 编号:位数:哈希函数个数
+    private static final String CURRENT_KEY = "seckill:bloom:current";
+    // 正在生成的代，格式同上
+    private static final String BUILDING_KEY = "seckill:bloom:building";
+    // 代的编号
+    private static final String SEQ_KEY = "seckill:bloom:seq";
+    // 重新生成的锁，过期时间为生成间隔，一个间隔内只有一个节点重新生成
+    private static final String REBUILD_LOCK_KEY = "seckill:bloom:rebuild";
+    // 每一代的bitmap，完整的key为 seckill:bloom:gen:编号
+    private static final String GEN_KEY_PREFIX = "seckill:bloom:gen:";
+    // 上次生成之后加入的商品id集合，生成时合并到新的一代后清空
+    private static final String RECENT_KEY = "seckill:bloom:recent";
+    // 切换后旧的一代保留的时间，还没读到新一代的节点可以继续使用
+    private static final long RETIRED_TTL = 10;
+    // 重新读取当前代的最短间隔
+    private static final long RELOAD_INTERVAL = 1000;
+    // 每个管道中的命令数量
+    private static final int PIPELINE_SIZE = 10000;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    // 本地模式的当前代和正在生成的代
+    private volatile LocalGeneration current;
+    private volatile LocalGeneration building;
+    // 本地模式上次生成之后加入的商品id
+    private final Queue<Long> recentAdds = new ConcurrentLinkedQueue<>();
+    private volatile long lastRebuildTime;
+    
+    // Redis模式下本节点缓存的当前代
+    private volatile RedisGeneration shared;
+    private volatile long lastReloadTime;
+    
+    /**
+     * 判断商品是否可能存在
+     * @param goodsId   秒杀商品id
+     * @return          false表示一定不存在，true表示可能存在
+     */
+    public boolean mightContain (Long goodsId)
+    {
+        if (!seckillConfig.isBloomShared()) {
+            LocalGeneration generation = current;
+            return generation == null || generation.mightContain(goodsId);
+        }
+        
+        RedisGeneration generation = sharedGeneration(false);
+        if (generation == null) {
+            return true;
+        }
+        if (generation.mightContain(goodsId)) {
+            return true;
+        }
+        
+        // 其它节点可能已经切换到新的一代，重新读取一次再判断
+        RedisGeneration latest = sharedGeneration(true);
+        return latest == null || (latest.seq != generation.seq && latest.mightContain(goodsId));
+    }
+    
+    /**
+     * 加入商品，同时写入当前代和正在生成的代
+     * @param goodsId   秒杀商品id
+     */
+    public void add (Long goodsId)
+    {
+        addAll(List.of(goodsId));
+    }
+    
+    public void addAll (Collection<Long> goodsIds)
+    {
+        if (goodsIds.isEmpty()) {
+            return;
+        }
+        
+        if (!seckillConfig.isBloomShared()) {
+            // 先记录再读取，生成的一方切换前会合并这些商品
+            // 先读building再读current：切换时先设置current再清空building，读到building为null时，
+            // 要么生成还没开始，商品会通过recentAdds合并，要么已经切换，随后读到的current就是新的一代
+            recentAdds.addAll(goodsIds);
+            LocalGeneration next = building;
+            LocalGeneration generation = current;
+            for (Long goodsId : goodsIds) {
+                if (generation != null) {
+                    generation.add(goodsId);
+                }
+                if (next != null) {
+                    next.add(goodsId);
+                }
+            }
+            return;
+        }
+        
+        // 先记录再读取，生成的一方切换前会合并这些商品
+        stringRedisTemplate.opsForSet().add(RECENT_KEY, goodsIds.stream().map(String::valueOf).toArray(String[]::new));
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(List.of(CURRENT_KEY, BUILDING_KEY));
+        for (String value : values) {
+            if (value != null) {
+                parse(value).addAll(goodsIds);
+            }
+        }
+    }
+    
+    /**
+     * 定期用正在秒杀的商品重新生成过滤器，没有到生成时间时只加入新的商品
+     * @param activeGoodsIds    所有正在秒杀的商品id
+     * @param newGoodsIds       这次新加入的商品id
+     */
+    public void refresh (Collection<Long> activeGoodsIds, Collection<Long> newGoodsIds)
+    {
+        if (!seckillConfig.isBloomShared()) {
+            if (current == null || System.currentTimeMillis() - lastRebuildTime >= seckillConfig.getBloomRebuildInterval()) {
+                rebuildLocal(activeGoodsIds);
+            } else {
+                addAll(newGoodsIds);
+            }
+            return;
+        }
+        
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(REBUILD_LOCK_KEY,
+                                                                       "1",
+                                                                       seckillConfig.getBloomRebuildInterval(),
+                                                                       TimeUnit.MILLISECONDS);
+        if (Boolean.TRUE.equals(locked)) {
+            rebuildShared(activeGoodsIds);
+        } else {
+            addAll(newGoodsIds);
+        }
+    }
+    
+    private void rebuildLocal (Collection<Long> goodsIds)
+    {
+        // 1.生成期间新加入的商品同时写入新的一代
+        LocalGeneration next = new LocalGeneration(bitSize(), hashCount());
+        building = next;
+        for (Long goodsId : goodsIds) {
+            next.add(goodsId);
+        }
+        
+        // 2.合并登记之前加入、只写入了旧一代的商品
+        for (Long goodsId = recentAdds.poll(); goodsId != null; goodsId = recentAdds.poll()) {
+            next.add(goodsId);
+        }
+        
+        // 3.切换
+        current = next;
+        building = null;
+        lastRebuildTime = System.currentTimeMillis();
+        
+        log.info("重新生成布隆过滤器，商品数：{}，位数：{}，哈希函数个数：{}", goodsIds.size(), next.bits, next.hashes);
+    }
+    
+    private void rebuildShared (Collection<Long> goodsIds)
+    {
+        // 1.登记正在生成的代，其它节点加入商品时同时写入
+        long seq = stringRedisTemplate.opsForValue().increment(SEQ_KEY);
+        RedisGeneration next = new RedisGeneration(seq, bitSize(), hashCount());
+        stringRedisTemplate.opsForValue().set(BUILDING_KEY, next.format());
+        
+        // 2.写入所有正在秒杀的商品
+        next.addAll(goodsIds);
+        
+        // 3.合并登记之前加入、只写入了旧一代的商品，清空之后才加入的商品一定能读到正在生成的代
+        Set<String> recent = stringRedisTemplate.opsForSet().members(RECENT_KEY);
+        stringRedisTemplate.delete(RECENT_KEY);
+        if (recent != null && !recent.isEmpty()) {
+            next.addAll(recent.stream().map(Long::valueOf).toList());
+        }
+        
+        // 4.切换，旧的一代保留一段时间后删除
+        String old = stringRedisTemplate.opsForValue().getAndSet(CURRENT_KEY, next.format());
+        stringRedisTemplate.delete(BUILDING_KEY);
+        if (old != null) {
+            stringRedisTemplate.expire(parse(old).key(), RETIRED_TTL, TimeUnit.MINUTES);
+        }
+        shared = next;
+        
+        log.info("重新生成共享布隆过滤器，代：{}，商品数：{}，位数：{}，哈希函数个数：{}", seq, goodsIds.size(), next.bits, next.hashes);
+    }
+    
+    /**
+     * Redis模式下的当前代，本节点缓存一份，需要时重新读取
+     * @param reload    是否重新读取，距离上次读取不到RELOAD_INTERVAL毫秒时不重新读取
+     */
+    private RedisGeneration sharedGeneration (boolean reload)
+    {
+        long now = System.currentTimeMillis();
+        if (shared == null || (reload && now - lastReloadTime >= RELOAD_INTERVAL)) {
+            lastReloadTime = now;
+            String value = stringRedisTemplate.opsForValue().get(CURRENT_KEY);
+            shared = value == null ? null : parse(value);
+        }
+        
+        return shared;
+    }
+    
+    /**
+     * 解析 编号:位数:哈希函数个数
+     */
+    private RedisGeneration parse (String value)
+    {
+        String[] parts = value.split(":");
+        
+        return new RedisGeneration(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+    }
+    
+    /**
+     * 位数 m = -n * ln(p) / (ln2)^2
+     */
+    private long bitSize ()
+    {
+        long n = Math.max(1, seckillConfig.getBloomExpectedItems());
+        double p = seckillConfig.getBloomFpp();
+        
+        return Math.max(64, (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+    }
+    
+    /**
+     * 哈希函数个数 k = m / n * ln2
+     */
+    private int hashCount ()
+    {
+        long n = Math.max(1, seckillConfig.getBloomExpectedItems());
+        
+        return Math.max(1, (int) Math.round((double) bitSize() / n * Math.log(2)));
+    }
+    
+    /**
+     * 商品在位数组中的所有位置，第i个位置为 h1 + i * h2
+     */
+    private static long[] positions (Long goodsId, long bits, int hashes)
+    {
+        long h1 = mix(goodsId);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] positions = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            positions[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        
+        return positions;
+    }
+    
+    /**
+     * 64位整数的哈希，所有节点的结果相同
+     */
+    private static long mix (long value)
+    {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        
+        return value ^ (value >>> 33);
+    }
+    
+    /**
+     * 保存在本节点内存中的一代
+     */
+    private static class LocalGeneration
+    {
+        private final long bits;
+        private final int hashes;
+        private final AtomicLongArray words;
+        
+        LocalGeneration (long bits, int hashes)
+        {
+            this.bits = bits;
+            this.hashes = hashes;
+            this.words = new AtomicLongArray((int) ((bits + 63) / 64));
+        }
+        
+        void add (Long goodsId)
+        {
+            for (long position : positions(goodsId, bits, hashes)) {
+                int index = (int) (position >>> 6);
+                long mask = 1L << position;
+                long word;
+                do {
+                    word = words.get(index);
+                } while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask));
+            }
+        }
+        
+        boolean mightContain (Long goodsId)
+        {
+            for (long position : positions(goodsId, bits, hashes)) {
+                if ((words.get((int) (position >>> 6)) & (1L << position)) == 0) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+    
+    /**
+     * 保存在Redis bitmap中的一代
+     */
+    private class RedisGeneration
+    {
+        private final long seq;
+        private final long bits;
+        private final int hashes;
+        
+        RedisGeneration (long seq, long bits, int hashes)
+        {
+            this.seq = seq;
+            this.bits = bits;
+            this.hashes = hashes;
+        }
+        
+        String format ()
+        {
+            return seq + ":" + bits + ":" + hashes;
+        }
+        
+        String key ()
+        {
+            return GEN_KEY_PREFIX + seq;
+        }
+        
+        void addAll (Collection<Long> goodsIds)
+        {
+            byte[] key = key().getBytes(StandardCharsets.UTF_8);
+            List<Long> batch = new ArrayList<>();
+            for (Long goodsId : goodsIds) {
+                for (long position : positions(goodsId, bits, hashes)) {
+                    batch.add(position);
+                }
+                if (batch.size() >= PIPELINE_SIZE) {
+                    setBits(key, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                setBits(key, batch);
+            }
+        }
+        
+        boolean mightContain (Long goodsId)
+        {
+            byte[] key = key().getBytes(StandardCharsets.UTF_8);
+            long[] positions = positions(goodsId, bits, hashes);
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long position : positions) {
+                    connection.stringCommands().getBit(key, position);
+                }
+                return null;
+            });
+            
+            for (Object result : results) {
+                if (!Boolean.TRUE.equals(result)) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private void setBits (byte[] key, List<Long> positions)
+        {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long position : positions) {
+                    connection.stringCommands().setBit(key, position, true);
+                }
+                return null;
+            });
+        }
+    }
+}
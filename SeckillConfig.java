@@ -0,0 +1,89 @@
+package com.wlt;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties (prefix = "seckill")
+public class SeckillConfig {
+    
+    private Map<Long, Integer> stockBuckets = new HashMap<>();     // 商品id -> 库存分段数，没有配置的商品不分段
+    
+    private int purchaseLimit = 0;          // 每个用户每个商品默认的限购数量，0表示不限购
+    
+    private Map<Long, Integer> purchaseLimits = new HashMap<>();   // 商品id -> 限购数量，覆盖默认的限购数量
+    
+    private long limitRejectTtl = 10000;    // 本地记录已经达到限购数量的用户的时间（毫秒），未支付订单过期后可以再次购买
+    
+    private int nearCacheSize = 10000;      // 本地缓存的最大条数
+    
+    private long nearCacheTtl = 5000;       // 本地缓存的过期时间（毫秒），丢失广播时最多这么久之后读到新数据
+    
+    private long soldOutMarkTtl = 3000;     // 本地售罄标记的有效期（毫秒），丢失补货广播时最多这么久之后恢复下单
+    
+    private int sweepBatchSize = 500;       // 每批回退库存的过期订单数
+    
+    private long expiredBatchWait = 20;     // 过期事件攒一批的最长等待时间（毫秒），每批最多sweepBatchSize条
+    
+    private long reconcileInterval = 1000 * 60;         // 补偿回退扫描未支付订单记录的间隔（毫秒）
+    
+    private boolean compactCodec = false;   // 是否用紧凑二进制格式写入Redis，滚动发布完成后再打开，新旧格式都可以读取
+    
+    private long bloomExpectedItems = 100000;   // 布隆过滤器预计保存的商品数量
+    
+    private double bloomFpp = 0.001;            // 布隆过滤器的误判率
+    
+    private long bloomRebuildInterval = 1000 * 60 * 10;     // 布隆过滤器重新生成的间隔（毫秒），结束秒杀的商品在重新生成后淘汰
+    
+    // 布隆过滤器是否保存在Redis中由所有节点共用
+    // 打开后每次下单判断商品是否存在都要在一个管道中执行k次GETBIT，默认误判率下k为10，多一次网络往返，
+    // 判断为不存在时还要再读一次当前代，只在节点多、重启频繁、本地生成的代价更高时打开
+    private boolean bloomShared = false;
+    
+    private boolean loadLease = false;          // Redis中丢失商品时是否只让一个节点从MySql加载
+    
+    private long loadLeaseTime = 3000;          // 加载租约的过期时间（毫秒），加载的节点宕机时最多这么久之后其它节点才能加载
+    
+    private long loadLeaseMaxWait = 200;        // 没有抢到租约时最多等待的时间（毫秒），要远小于Dubbo的调用超时，超时后降级
+    
+    private long warmUpLead = 1000 * 60 * 5;    // 秒杀开始前多久预热库存计数器和布隆过滤器（毫秒）
+    
+    private long warmUpScanInterval = 1000 * 60;    // 读取秒杀场次的间隔（毫秒）
+    
+    private double admissionRate = 2000;        // 每个商品每秒允许下单的请求数（每个节点）
+    
+    private int admissionFactor = 2;            // 每个商品同时下单的人数最多为剩余库存的几倍
+    
+    private int admissionQueueSize = 10000;     // 每个商品同时下单的最大人数（每个节点）
+    
+    private int mySqlConcurrency = 50;          // 同时从MySql加载商品的最大请求数
+    
+    private long mySqlConcurrencyTimeout = 500; // 等待MySql并发许可的最长时间（毫秒）
+    
+    /**
+     * 商品的库存分段数，只能在秒杀开始前修改，否则已经生成的库存计数器会对不上
+     * @param goodsId   秒杀商品id
+     * @return          分段数，至少为1
+     */
+    public int bucketsOf (Long goodsId) {
+        Integer buckets = stockBuckets.get(goodsId);
+    
+        return buckets == null || buckets < 1 ? 1 : buckets;
+    }
+    
+    /**
+     * 商品的限购数量
+     * @param goodsId   秒杀商品id
+     * @return          限购数量，0表示不限购
+     */
+    public int purchaseLimitOf (Long goodsId) {
+        Integer limit = purchaseLimits.get(goodsId);
+        
+        return Math.max(0, limit == null ? purchaseLimit : limit);
+    }
+}
@@ -0,0 +1,383 @@
+package com.wlt.redis;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wlt.SeckillConfig;
+import com.wlt.pojo.SeckillGoods;
+import com.wlt.result.BusException;
+import com.wlt.result.CodeEnum;
+import com.wlt.utils.LocalCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis中正在秒杀的商品目录
+ * 商品保存在seckillGoods这个Hash中，商品ID作为Hash的field，商品对象序列化为value
+ * <p>
+ * 整体刷新时先写入带版本号的临时key，写完后用RENAME原子替换，
+ * 读取的一方要么看到旧的目录，要么看到新的目录，不会看到空的或者写了一半的目录
+ * <p>
+ * 目录旁边维护一个按秒杀开始时间排序的ZSet索引，分页时只取一页的商品id再HMGET这一页的商品，
+ * 不需要把整个目录都读出来，开始时间相同的商品按商品id排序，多次分页的顺序是稳定的
+ * <p>
+ * 商品详情和分页结果在本地再缓存一份，目录每次变化都会广播新的版本号，所有节点收到后清空本地缓存，
+ * 库存不走本地缓存，由调用方单独查询实时库存
+ * <p>
+ * get和page各有一个非阻塞的版本，和同步版本共用本地缓存
+ */
+@Component
+public class SeckillGoodsCatalog implements MessageListener
+{
+    public static final String CATALOG_KEY = "seckillGoods";
+    // 按开始时间排序的商品id索引
+    public static final String INDEX_KEY = "seckillGoods:index";
+    // 目录版本号，每次整体刷新加一
+    public static final String VERSION_KEY = "seckillGoods:version";
+    // 临时key的前缀，完整的key为 seckillGoods:staging:版本号
+    private static final String STAGING_KEY_PREFIX = "seckillGoods:staging:";
+    private static final String STAGING_INDEX_KEY_PREFIX = "seckillGoods:index:staging:";
+    // 目录变化的广播频道，消息内容为新的版本号
+    public static final String CHANGED_CHANNEL = "seckillGoods:changed";
+    // 临时key的过期时间，防止刷新中途失败留下垃圾数据
+    private static final long STAGING_TTL = 5;
+    // 每页最多的条数，超过时拒绝查询，防止一次把整个目录读出来
+    public static final int MAX_PAGE_SIZE = 100;
+    
+    /**
+     * 用临时key替换正式目录和索引，RENAME会带上临时key的过期时间，所以替换后要去掉过期时间
+     * KEYS[1]临时目录 KEYS[2]正式目录 KEYS[3]临时索引 KEYS[4]正式索引
+     */
+    private static final DefaultRedisScript<Long> PUBLISH_SCRIPT = new DefaultRedisScript<>("""
+        redis.call('RENAME', KEYS[1], KEYS[2])
+        redis.call('PERSIST', KEYS[2])
+        redis.call('RENAME', KEYS[3], KEYS[4])
+        redis.call('PERSIST', KEYS[4])
+        return 1
+        """, Long.class);
+    
+    @Autowired
+    private RedisTemplate redisTemplate;
+    @Autowired
+    private ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    // 本地缓存的商品详情，商品id -> 秒杀商品
+    private LocalCache<Long, SeckillGoods> detailCache;
+    // 本地缓存的分页结果，页码:每页条数 -> 商品分页
+    private LocalCache<String, Page<SeckillGoods>> pageCache;
+    
+    @PostConstruct
+    public void init ()
+    {
+        detailCache = new LocalCache<>(seckillConfig.getNearCacheSize(), seckillConfig.getNearCacheTtl());
+        pageCache = new LocalCache<>(seckillConfig.getNearCacheSize(), seckillConfig.getNearCacheTtl());
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANGED_CHANNEL));
+    }
+    
+    /**
+     * 发布新的商品目录
+     * @param seckillGoodsMap   商品id -> 秒杀商品
+     * @return                  新目录的版本号
+     */
+    public long publish (Map<Long, SeckillGoods> seckillGoodsMap)
+    {
+        long version = redisTemplate.opsForValue().increment(VERSION_KEY);
+        
+        // 没有正在秒杀的商品，直接删除目录
+        if (seckillGoodsMap.isEmpty()) {
+            redisTemplate.delete(List.of(CATALOG_KEY, INDEX_KEY));
+            notifyChanged(version);
+            return version;
+        }
+        
+        // 1.写入临时目录，一次HMSET
+        String stagingKey = STAGING_KEY_PREFIX + version;
+        redisTemplate.boundHashOps(stagingKey).putAll(seckillGoodsMap);
+        redisTemplate.expire(stagingKey, STAGING_TTL, TimeUnit.MINUTES);
+        
+        // 2.写入临时索引，一次ZADD
+        String stagingIndexKey = STAGING_INDEX_KEY_PREFIX + version;
+        Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+        for (SeckillGoods seckillGoods : seckillGoodsMap.values()) {
+            tuples.add(new DefaultTypedTuple<>(seckillGoods.getGoodsId(), score(seckillGoods)));
+        }
+        redisTemplate.boundZSetOps(stagingIndexKey).add(tuples);
+        redisTemplate.expire(stagingIndexKey, STAGING_TTL, TimeUnit.MINUTES);
+        
+        // 3.原子替换正式目录和索引
+        redisTemplate.execute(PUBLISH_SCRIPT, List.of(stagingKey, CATALOG_KEY, stagingIndexKey, INDEX_KEY));
+        notifyChanged(version);
+        
+        return version;
+    }
+    
+    /**
+     * 添加或者覆盖一个秒杀商品
+     * @param seckillGoods  秒杀商品
+     */
+    public void put (SeckillGoods seckillGoods)
+    {
+        redisTemplate.boundHashOps(CATALOG_KEY).put(seckillGoods.getGoodsId(), seckillGoods);
+        redisTemplate.boundZSetOps(INDEX_KEY).add(seckillGoods.getGoodsId(), score(seckillGoods));
+        notifyChanged(redisTemplate.opsForValue().increment(VERSION_KEY));
+    }
+    
+    /**
+     * 查询一个秒杀商品
+     * @param goodsId   秒杀商品id
+     * @return          秒杀商品的副本，不存在时返回null
+     */
+    public SeckillGoods get (Long goodsId)
+    {
+        SeckillGoods seckillGoods = detailCache.get(goodsId);
+        if (seckillGoods == null) {
+            seckillGoods = (SeckillGoods) redisTemplate.boundHashOps(CATALOG_KEY).get(goodsId);
+            if (seckillGoods == null) {
+                return null;
+            }
+            detailCache.put(goodsId, seckillGoods);
+        }
+        
+        // 调用方会修改库存，返回副本，不修改缓存中的对象
+        return copy(seckillGoods);
+    }
+    
+    /**
+     * 分页查询秒杀商品，ZCARD和ZRANGE放在一个管道中，再用HMGET取这一页的商品
+     * @param page  页码，从1开始
+     * @param size  每页条数，1到MAX_PAGE_SIZE
+     * @return      商品分页的副本，商品中的库存不是实时库存
+     */
+    public Page<SeckillGoods> page (int page, int size)
+    {
+        if (!isValidPage(page, size)) {
+            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
+        }
+        
+        String cacheKey = page + ":" + size;
+        Page<SeckillGoods> cached = pageCache.get(cacheKey);
+        if (cached == null) {
+            cached = loadPage(page, size);
+            pageCache.put(cacheKey, cached);
+        }
+        
+        return copy(cached);
+    }
+    
+    /**
+     * 非阻塞的get，本地缓存命中时直接返回已经完成的结果
+     * @param goodsId   秒杀商品id
+     * @return          秒杀商品的副本，不存在时结果为null
+     */
+    public CompletableFuture<SeckillGoods> getAsync (Long goodsId)
+    {
+        SeckillGoods cached = detailCache.get(goodsId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(copy(cached));
+        }
+        
+        return reactiveRedisTemplate.opsForHash().get(CATALOG_KEY, goodsId).toFuture().thenApply(value -> {
+            if (value == null) {
+                return null;
+            }
+            SeckillGoods seckillGoods = (SeckillGoods) value;
+            detailCache.put(goodsId, seckillGoods);
+            return copy(seckillGoods);
+        });
+    }
+    
+    /**
+     * 非阻塞的page，ZCARD和ZRANGE同时发出，在同一个连接上自动合并成管道，再用HMGET取这一页的商品
+     * @param page  页码，从1开始
+     * @param size  每页条数，1到MAX_PAGE_SIZE
+     * @return      商品分页的副本，商品中的库存不是实时库存，页码或条数不合法时结果为BusException
+     */
+    public CompletableFuture<Page<SeckillGoods>> pageAsync (int page, int size)
+    {
+        if (!isValidPage(page, size)) {
+            return CompletableFuture.failedFuture(new BusException(CodeEnum.WRONG_NUMBER_ERROR));
+        }
+        
+        String cacheKey = page + ":" + size;
+        Page<SeckillGoods> cached = pageCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(copy(cached));
+        }
+        
+        long start = (long) (page - 1) * size;
+        long end = start + size - 1;
+        
+        // 1.查询总条数和这一页的商品id
+        Mono<Long> total = reactiveRedisTemplate.opsForZSet().size(INDEX_KEY).defaultIfEmpty(0L);
+        Mono<List<Object>> goodsIds = reactiveRedisTemplate.opsForZSet().range(INDEX_KEY, Range.closed(start, end)).collectList();
+        
+        return Mono.zip(total, goodsIds)
+                   .flatMap(tuple -> {
+                       // 2.查询这一页的商品
+                       if (tuple.getT2().isEmpty()) {
+                           return Mono.just(toPage(page, size, tuple.getT1(), List.of()));
+                       }
+                       return reactiveRedisTemplate.opsForHash()
+                                                   .multiGet(CATALOG_KEY, tuple.getT2())
+                                                   .map(values -> toPage(page, size, tuple.getT1(), values));
+                   })
+                   .toFuture()
+                   .thenApply(loaded -> {
+                       pageCache.put(cacheKey, loaded);
+                       return copy(loaded);
+                   });
+    }
+    
+    /**
+     * 分页结果的副本，调用方会修改库存
+     */
+    private static Page<SeckillGoods> copy (Page<SeckillGoods> cached)
+    {
+        List<SeckillGoods> records = new ArrayList<>(cached.getRecords().size());
+        for (SeckillGoods seckillGoods : cached.getRecords()) {
+            records.add(copy(seckillGoods));
+        }
+        
+        Page<SeckillGoods> seckillGoodsPage = new Page<>();
+        seckillGoodsPage.setCurrent(cached.getCurrent())
+                        .setSize(cached.getSize())
+                        .setTotal(cached.getTotal())
+                        .setRecords(records);
+        return seckillGoodsPage;
+    }
+    
+    /**
+     * 页码从1开始，每页条数在1到MAX_PAGE_SIZE之间
+     * size小于等于0时ZRANGE的结束位置为负数，会返回整个索引，所以必须在查询前拒绝
+     */
+    private static boolean isValidPage (int page, int size)
+    {
+        return page >= 1 && size >= 1 && size <= MAX_PAGE_SIZE;
+    }
+    
+    private Page<SeckillGoods> loadPage (int page, int size)
+    {
+        long start = (long) (page - 1) * size;
+        long end = start + size - 1;
+        
+        // 1.查询总条数和这一页的商品id
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute (RedisOperations operations) throws DataAccessException
+            {
+                operations.opsForZSet().zCard(INDEX_KEY);
+                operations.opsForZSet().range(INDEX_KEY, start, end);
+                return null;
+            }
+        });
+        Long total = (Long) results.get(0);
+        Collection<Object> goodsIds = (Collection<Object>) results.get(1);
+        
+        // 2.查询这一页的商品
+        List<Object> values = goodsIds == null || goodsIds.isEmpty()
+                              ? List.of()
+                              : redisTemplate.boundHashOps(CATALOG_KEY).multiGet(goodsIds);
+        
+        return toPage(page, size, total == null ? 0 : total, values);
+    }
+    
+    /**
+     * 组装分页结果，过滤掉索引和目录不一致时查不到的商品
+     */
+    private static Page<SeckillGoods> toPage (int page, int size, long total, List<Object> values)
+    {
+        List<SeckillGoods> records = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                records.add((SeckillGoods) value);
+            }
+        }
+        
+        Page<SeckillGoods> seckillGoodsPage = new Page<>();
+        seckillGoodsPage.setCurrent(page)                               // 当前页
+                        .setSize(size)                                  // 每页条数
+                        .setTotal(total)                                // 总条数
+                        .setRecords(records);                           // 结果集
+        return seckillGoodsPage;
+    }
+    
+    /**
+     * 查询所有秒杀商品
+     * @return  秒杀商品列表
+     */
+    public List<SeckillGoods> values ()
+    {
+        return redisTemplate.boundHashOps(CATALOG_KEY).values();
+    }
+    
+    /**
+     * 查询所有秒杀商品id
+     * @return  秒杀商品id
+     */
+    public Set<Long> goodsIds ()
+    {
+        return new HashSet<>(redisTemplate.boundHashOps(CATALOG_KEY).keys());
+    }
+    
+    /**
+     * 广播目录的新版本号
+     * @param version   版本号
+     */
+    private void notifyChanged (long version)
+    {
+        stringRedisTemplate.convertAndSend(CHANGED_CHANNEL, String.valueOf(version));
+    }
+    
+    /**
+     * 收到目录变化的广播，清空本地缓存
+     */
+    @Override
+    public void onMessage (Message message, byte[] pattern)
+    {
+        detailCache.invalidateAll();
+        pageCache.invalidateAll();
+    }
+    
+    private static SeckillGoods copy (SeckillGoods seckillGoods)
+    {
+        return BeanUtil.copyProperties(seckillGoods, SeckillGoods.class);
+    }
+    
+    /**
+     * 索引的分数，按秒杀开始时间排序
+     */
+    private static double score (SeckillGoods seckillGoods)
+    {
+        return seckillGoods.getStartTime() == null ? 0 : seckillGoods.getStartTime().getTime();
+    }
+}
@@ -1,8 +1,13 @@
-package com.wlt.mapper;
-
-import com.baomidou.mybatisplus.core.mapper.BaseMapper;
-import com.wlt.pojo.SeckillGoods;
-
-public interface SeckillGoodsMapper extends BaseMapper<SeckillGoods>
-{
-}
+package com.wlt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wlt.pojo.SeckillGoods;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+public interface SeckillGoodsMapper extends BaseMapper<SeckillGoods>
+{
+    // 按商品id批量修改库存，一条UPDATE ... CASE语句
+    int updateStockBatch (@Param("list") List<SeckillGoods> seckillGoodsList);
+}
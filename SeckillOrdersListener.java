@@ -0,0 +1,90 @@
+package com.wlt.listener;
+
+import com.wlt.pojo.Orders;
+import com.wlt.service.OrdersCache;
+import com.wlt.service.SeckillOrdersWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
+import org.apache.rocketmq.spring.support.RocketMQMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀订单消费者
+ * 使用RocketMQ的批量消费，一次拉取的消息直接作为一批，一条SQL写入，写入成功后才确认这一批消息，
+ * 写入失败时这一批的消息都会重新投递
+ * 消息少的时候有多少写多少，不等待攒批，每个消费线程各自写入自己的一批，不经过中间队列，
+ * MySql写不过来时消费线程都在写入，不再拉取新消息，消息留在RocketMQ中
+ */
+@Slf4j
+@Service
+@RocketMQMessageListener(topic = "seckill_orders_queue", consumerGroup = "seckill_orders_queue")
+public class SeckillOrdersListener implements RocketMQListener<Orders>, RocketMQPushConsumerLifecycleListener {
+    // 每批最多的消息数量，一次拉取的数量和它相同
+    private static final int BATCH_SIZE = 500;
+    
+    @Autowired
+    private SeckillOrdersWriter seckillOrdersWriter;
+    @Autowired
+    private OrdersCache ordersCache;
+    @Autowired
+    private RocketMQMessageConverter rocketMQMessageConverter;
+    
+    /**
+     * 启动前替换默认的逐条消费，改为批量消费
+     */
+    @Override
+    public void prepareStart (DefaultMQPushConsumer consumer) {
+        consumer.setConsumeMessageBatchMaxSize(BATCH_SIZE);
+        consumer.setPullBatchSize(BATCH_SIZE);
+        consumer.setMessageListener((MessageListenerConcurrently) (messages, context) -> {
+            List<Orders> batch = new ArrayList<>(messages.size());
+            for (MessageExt message : messages) {
+                batch.add(toOrders(message));
+            }
+            
+            try {
+                save(batch);
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            } catch (Exception e) {
+                log.error("保存秒杀订单失败，{}条消息稍后重新投递", batch.size(), e);
+                return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+            }
+        });
+    }
+    
+    /**
+     * 批量消费时不会调用，保留给逐条消费的配置
+     */
+    @Override
+    public void onMessage (Orders orders) {
+        save(List.of(orders));
+    }
+    
+    private void save (List<Orders> batch) {
+        int count = seckillOrdersWriter.saveBatch(batch);
+        log.info("保存秒杀订单消息{}条，新增订单{}条", batch.size(), count);
+        
+        // 事务提交后删除缓存，之前查询不到的订单和支付前的订单都要重新查询
+        ordersCache.invalidateAll(batch.stream().map(Orders::getId).collect(Collectors.toSet()));
+    }
+    
+    /**
+     * 和逐条消费使用相同的消息转换器，消息体是Orders的JSON
+     */
+    private Orders toOrders (MessageExt message) {
+        return (Orders) rocketMQMessageConverter.getMessageConverter()
+                                                .fromMessage(MessageBuilder.withPayload(message.getBody()).build(), Orders.class);
+    }
+}
@@ -0,0 +1,99 @@
+package com.wlt.service;
+
+import com.wlt.mapper.CartGoodsMapper;
+import com.wlt.mapper.OrdersMapper;
+import com.wlt.mapper.OrdersOutboxMapper;
+import com.wlt.pojo.CartGoods;
+import com.wlt.pojo.Orders;
+import com.wlt.pojo.OrdersOutbox;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 秒杀订单批量写入MySql
+ */
+@Service
+public class SeckillOrdersWriter {
+    @Autowired
+    private OrdersMapper ordersMapper;
+    @Autowired
+    private CartGoodsMapper cartGoodsMapper;
+    @Autowired
+    private OrdersOutboxMapper ordersOutboxMapper;
+    
+    // 每条INSERT最多包含的订单商品数量
+    private static final int CART_GOODS_BATCH_SIZE = 500;
+    
+    /**
+     * 批量保存秒杀订单
+     * 消息至少投递一次，同一个订单可能收到多次，也可能先收到支付消息再收到下单消息，
+     * 所以按订单id去重：不存在的订单批量新增，已经存在的订单只更新支付状态
+     * 新增的未支付订单和普通订单一样保存检查是否支付的延时消息
+     * @param batch     一批订单消息
+     * @return          新增的订单数量
+     */
+    @Transactional
+    public int saveBatch (List<Orders> batch) {
+        // 1.同一批中的重复订单只保留状态最新的一条
+        Map<String, Orders> latest = new LinkedHashMap<>();
+        for (Orders orders : batch) {
+            latest.merge(orders.getId(), orders, (old, cur) -> statusOf(cur) > statusOf(old) ? cur : old);
+        }
+        
+        // 2.查询已经保存过的订单
+        Set<String> existingIds = new HashSet<>(ordersMapper.findExistingIds(latest.keySet()));
+        
+        List<Orders> newOrders = new ArrayList<>();
+        List<CartGoods> newCartGoods = new ArrayList<>();
+        List<OrdersOutbox> outboxes = new ArrayList<>();
+        for (Orders orders : latest.values()) {
+            if (existingIds.contains(orders.getId())) {
+                // 3.已经保存过的订单，支付消息更新支付状态
+                if (Integer.valueOf(2).equals(orders.getStatus())) {
+                    Orders paid = new Orders();
+                    paid.setId(orders.getId());
+                    paid.setStatus(orders.getStatus());
+                    paid.setPaymentTime(orders.getPaymentTime());
+                    paid.setPaymentType(orders.getPaymentType());
+                    ordersMapper.updateById(paid);
+                }
+                continue;
+            }
+            
+            // 4.没有保存过的订单批量新增
+            newOrders.add(orders);
+            for (CartGoods cartGood : orders.getCartGoods()) {
+                cartGood.setOrderId(orders.getId());
+                newCartGoods.add(cartGood);
+            }
+            if (Integer.valueOf(1).equals(orders.getStatus())) {
+                outboxes.add(OrdersOutboxDispatcher.checkOrders(orders.getId()));
+            }
+        }
+        
+        if (!newOrders.isEmpty()) {
+            ordersMapper.insertBatch(newOrders);
+            cartGoodsMapper.insertInChunks(newCartGoods, CART_GOODS_BATCH_SIZE);
+        }
+        if (!outboxes.isEmpty()) {
+            ordersOutboxMapper.insertBatch(outboxes);
+        }
+        
+        return newOrders.size();
+    }
+    
+    /**
+     * 订单状态，没有状态的订单当作最旧的状态
+     */
+    private static int statusOf (Orders orders) {
+        return orders.getStatus() == null ? 0 : orders.getStatus();
+    }
+}
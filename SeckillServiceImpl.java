@@ -1,258 +1,681 @@
-package com.wlt.service;
-
-import cn.hutool.bloomfilter.BitMapBloomFilter;
-import com.alibaba.csp.sentinel.annotation.SentinelResource;
-import com.alibaba.csp.sentinel.slots.block.BlockException;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.toolkit.IdWorker;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
-import com.wlt.mapper.SeckillGoodsMapper;
-import com.wlt.pojo.CartGoods;
-import com.wlt.pojo.Orders;
-import com.wlt.pojo.SeckillGoods;
-import com.wlt.redis.RedissonLock;
-import com.wlt.result.BusException;
-import com.wlt.result.CodeEnum;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.dubbo.config.annotation.DubboService;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.StringRedisSerializer;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.stereotype.Component;
-import org.springframework.stereotype.Service;
-
-import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-
-@Slf4j
-@Service
-@Component
-@DubboService
-public class SeckillServiceImpl implements SeckillService
-{
-    @Autowired
-    private SeckillGoodsMapper seckillGoodsMapper;
-    @Autowired
-    private RedisTemplate redisTemplate;
-    @Autowired
-    private BitMapBloomFilter bitMapBloomFilter;
-    @Autowired
-    private RedissonLock redissonLock;
-    
-    /**
-     * 每分钟查询一次数据库，更新Redis中的秒杀商品数据
-     * 条件为startTime < 当前时间 < endTime，库存大于0
-     */
-    @Scheduled (cron = "0 * * * * *")
-    public void refreshRedis () {
-        // 1.将Redis中的库存数据先同步到MySql中
-        List<SeckillGoods> seckillGoodsListRedis = redisTemplate.boundHashOps("seckillGoods").values();
-        for (SeckillGoods seckillGoods : seckillGoodsListRedis) {
-            // 从数据库中查询秒杀商品
-            QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("goodsId", seckillGoods.getGoodsId());
-            SeckillGoods sqlSeckillGoods = seckillGoodsMapper.selectOne(queryWrapper);
-            // 修改秒杀商品的库存
-            sqlSeckillGoods.setStockCount(seckillGoods.getStockCount());
-            seckillGoodsMapper.updateById(sqlSeckillGoods);
-        }
-        
-        log.info("同步MySql秒杀商品到Redis");
-        
-        // 2.查询数据库中正在秒杀的商品
-        QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
-        Date date = new Date();
-        String now = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(date);
-        queryWrapper.le("startTime", now)       // 当前时间晚于开始时间
-            .ge("endTime", now)                 // 当前时间早于结束时间
-            .gt("stockCount", 0);          // 库存大于0
-        
-        
-        List<SeckillGoods> seckillGoodsList = seckillGoodsMapper.selectList(queryWrapper);
-        
-        // 3.删除之前过期的秒杀商品
-        redisTemplate.delete("seckillGoods");
-        
-        // 4.保存现在正在秒杀的商品
-        for(SeckillGoods seckillGood : seckillGoodsList) {
-            // 将商品ID作为Hash的field，商品对象序列化为value
-            redisTemplate.boundHashOps("seckillGoods").put(seckillGood.getGoodsId(), seckillGood);
-            bitMapBloomFilter.add(seckillGood.getGoodsId().toString());
-        }
-    }
-    
-    @Override
-    @SentinelResource("findPageByRedis")
-    public Page<SeckillGoods> findPageByRedis (int page, int size) {
-        // 1.查询所有秒杀商品列表
-        List<SeckillGoods> seckillGoodsList = redisTemplate.boundHashOps("seckillGoods").values();
-        
-        // 2.获取当前页的商品列表, 截取seckillGoodsList
-        // 2.1开始截取的索引
-        int start = (page - 1) * size;
-        // 2.2结束截取的索引
-        int end = (start + size > seckillGoodsList.size()) ? seckillGoodsList.size() : (start + size);
-        // 2.3截取当前页的结果集
-        List<SeckillGoods> seckillGoods = seckillGoodsList.subList(start, end);
-        
-        // 3.构造页面兑现
-        Page<SeckillGoods> seckillGoodsPage = new Page<>();
-        seckillGoodsPage.setCurrent(page)                       // 当前页
-                        .setSize(size)                          // 每页条数
-                        .setTotal(seckillGoodsList.size())      // 总条数
-                        .setRecords(seckillGoods);              // 结果集
-        return seckillGoodsPage;
-    }
-    
-    @Override
-    public SeckillGoods findSeckillGoodsByRedis (Long goodsId) {
-        // 1.布隆过滤器判断商品是否真的存在，如果不存在直接返回
-        if (!bitMapBloomFilter.contains(goodsId.toString())) {
-            log.info("布隆过滤器判断商品不存在");
-            
-            throw new BusException(CodeEnum.ORDER_EXPIRED_ERROR);
-        }
-        
-        // 2.从Redis中查询秒杀商品
-        SeckillGoods seckillGoods = (SeckillGoods) redisTemplate.boundHashOps("seckillGoods").get(goodsId);
-        
-        // 3.如果查到商品，返回
-        if (seckillGoods == null) {
-            log.info("从Redis中查询商品");
-            
-            return seckillGoods;
-        }
-        
-        return null;
-    }
-    
-    @Override
-    public Orders createOrder (Orders orders) {
-        String lockKey = orders.getCartGoods().get(0).getGoodId().toString();
-        
-        if (redissonLock.lock(lockKey, 10000L)) {
-            try
-            {
-                // 1.生成订单对象
-                orders.setId(IdWorker.getIdStr());      // 手动使用雪花算法生成订单ID（自动生成的会保存到数据库）
-                orders.setStatus(1);                    // 订单状态未付款
-                orders.setCreateTime(new Date());       // 订单创建时间
-                orders.setExpire(new Date(new Date().getTime() + 1000*60*5));   // 订单过期时间
-                
-                // 计算商品的价格
-                CartGoods cartGoods = orders.getCartGoods().get(0);
-                Integer num = cartGoods.getNum();
-                BigDecimal price = cartGoods.getPrice();
-                BigDecimal sum = price.multiply(BigDecimal.valueOf(num));       // 防止精度丢失
-                orders.setPayment(sum);
-                
-                // 2.减少秒杀商品库存
-                // 2.1查询秒杀商品
-                SeckillGoods seckillGood = findSeckillGoodsByRedis(cartGoods.getGoodId());
-                
-                // 2.2查询库存，库存不足抛异常
-                Integer stockCount = seckillGood.getStockCount();
-                if (stockCount <= 0)
-                    throw new BusException(CodeEnum.NO_STOCK_ERROR);
-                
-                // 2.3减少库存
-                seckillGood.setStockCount(seckillGood.getStockCount() - cartGoods.getNum());
-                redisTemplate.boundHashOps("seckillGoods").put(seckillGood.getGoodsId(), seckillGood);
-                
-                // 3.生成订单，将订单数据保存到Redis
-                redisTemplate.setKeySerializer(new StringRedisSerializer());
-                /**
-                 * 设置订单5分钟过期，过期后只能拿到Redis内的key，拿不到value，
-                 * 而过期时间需要回退商品库存，必须拿到value的商品详情才能拿到数据从而进行回退事件
-                 * 所以可以设置一个副本，副本过期时间长于订单时间从而来解决拿不到value的问题
-                 */
-                redisTemplate.opsForValue().set(orders.getId(), orders, 5, TimeUnit.MINUTES);
-                redisTemplate.opsForValue().set(orders.getId() + "_copy", orders, 7, TimeUnit.MINUTES);
-                
-                log.info("库存还有：{}", seckillGood.getStockCount());
-                
-                return orders;
-            } finally {
-                redissonLock.unlock(lockKey);
-            }
-        } else {
-            // 如果没拿到直接就给线程中断了，其实不会返回null
-            return null;
-        }
-    }
-    
-    @Override
-    public Orders findOrder (String id) {
-        return (Orders) redisTemplate.opsForValue().get(id);
-    }
-    
-    @Override
-    public Orders pay (String orderId) {
-        // 1.查询订单，设置支付相关数据
-        Orders order = findOrder(orderId);
-        if (order == null) {
-            throw new BusException(CodeEnum.ORDER_EXPIRED_ERROR);
-        }
-        
-        order.setStatus(2);
-        order.setPaymentTime(new Date());
-        order.setPaymentType(2);            // 支付宝支付
-        
-        // 2.从Redis中删除数据
-        redisTemplate.delete(orderId);
-        redisTemplate.delete(orderId + "_copy");
-        
-        // 3.返回订单数据
-        return order;
-    }
-    
-    @Override
-    public void addRedisSeckillGoods (SeckillGoods seckillGoods) {
-        redisTemplate.boundHashOps("seckillGoods").put(seckillGoods.getGoodsId(), seckillGoods);
-        bitMapBloomFilter.add(seckillGoods.getGoodsId().toString());
-    }
-    
-    @Override
-    @SentinelResource(value = "findSeckillGoodsByMySql", blockHandler = "mySqlBlockHandler")
-    public SeckillGoods findSeckillGoodsByMySql (Long goodsId) {
-        // 4.如果没有查到商品，则从数据库中查秒杀商品
-        QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("goodsId", goodsId);
-        SeckillGoods seckillGoodsMySql = seckillGoodsMapper.selectOne(queryWrapper);
-        
-        log.info("从MySql中查询商品");
-        
-        // 5.如果数据库中查不到，返回null
-        Date now = new Date();
-        if (seckillGoodsMySql == null
-            || now.after(seckillGoodsMySql.getEndTime())
-            || now.before(seckillGoodsMySql.getStartTime())) {
-            throw new BusException(CodeEnum.WRONG_TIME_ERROR);
-        }
-        else if (seckillGoodsMySql.getStockCount() <= 0)
-        {
-            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
-        }
-        
-        // 6.如果该商品可以在数据库中查到，说明是Redis数据丢失，将商品保存到Redis并返回该商品
-        addRedisSeckillGoods(seckillGoodsMySql);
-        
-        return seckillGoodsMySql;
-    }
-    
-    /**
-     * 降级处理
-     * @param goodsId
-     * @param blockException
-     * @return                  返回空
-     */
-    public SeckillGoods mySqlBlockHandler (Long goodsId, BlockException blockException) {
-        log.info("服务降级方法");
-        
-        return null;
-    }
-}
+package com.wlt.service;
+
+import com.alibaba.csp.sentinel.annotation.SentinelResource;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wlt.SeckillConfig;
+import com.wlt.mapper.SeckillGoodsMapper;
+import com.wlt.pojo.CartGoods;
+import com.wlt.pojo.Orders;
+import com.wlt.pojo.SeckillGoods;
+import com.wlt.redis.SeckillBloomFilter;
+import com.wlt.redis.SeckillGoodsCatalog;
+import com.wlt.redis.SeckillStockEngine;
+import com.wlt.redis.SoldOutCache;
+import com.wlt.result.BusException;
+import com.wlt.result.CodeEnum;
+import com.wlt.utils.ConcurrencyLimiter;
+import com.wlt.utils.LocalCache;
+import com.wlt.utils.SingleFlight;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.dubbo.config.annotation.DubboService;
+import org.apache.dubbo.rpc.AsyncContext;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+@Service
+@Component
+@DubboService (executor = "seckillServiceExecutor")
+public class SeckillServiceImpl implements SeckillService
+{
+    @Autowired
+    private SeckillGoodsMapper seckillGoodsMapper;
+    @Autowired
+    private RedisTemplate redisTemplate;
+    @Autowired
+    private ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+    @Autowired
+    private SeckillBloomFilter seckillBloomFilter;
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SeckillGoodsCatalog seckillGoodsCatalog;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    @Autowired
+    private SeckillWarmUpScheduler seckillWarmUpScheduler;
+    @Autowired
+    private SeckillAdmission seckillAdmission;
+    // Redis数据丢失时从MySql加载商品的线程池，不占用Dubbo线程池
+    @Autowired
+    private ExecutorService seckillLoaderExecutor;
+    // 通过代理调用自己的方法，@SentinelResource的降级才会生效
+    @Lazy
+    @Autowired
+    private SeckillServiceImpl self;
+    
+    // 秒杀订单写入MySql的队列，由订单服务批量消费
+    private static final String SECKILL_ORDERS_QUEUE = "seckill_orders_queue";
+    // 订单过期时间，过期后回退库存
+    private static final long ORDER_TTL = 1000 * 60 * 5;
+    // 未支付订单记录过期时间，长于订单过期时间
+    private static final long PENDING_TTL = 1000 * 60 * 7;
+    // 库存写回MySql时每条UPDATE语句包含的商品数量
+    private static final int FLUSH_BATCH_SIZE = 500;
+    // 从MySql加载商品的租约，完整的key为 seckill:load:商品id
+    private static final String LOAD_LEASE_KEY_PREFIX = "seckill:load:";
+    // 等待其它节点加载商品时查询Redis的间隔
+    private static final long LOAD_POLL_INTERVAL = 50;
+    // 等待本节点其它线程从MySql加载商品的最长时间，超时后自己加载
+    private static final long LOAD_WAIT = 1000;
+    // 同步秒杀商品的租约，同一时间只有一个节点同步
+    private static final String REFRESH_LEASE_KEY = "seckill:refresh:lease";
+    // 租约时间，短于同步的间隔，持有租约的节点宕机时下一次同步可以重新获取
+    private static final long REFRESH_LEASE_TIME = 1000 * 50;
+    // 还没有结束就从目录中移除的商品，分数为结束时间，结束后再删除库存计数器
+    private static final String WITHDRAWN_KEY = "seckill:withdrawn";
+    // 只释放自己持有的租约，同步超过租约时间时不会删除其它节点的租约
+    private static final DefaultRedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('GET', KEYS[1]) == ARGV[1] then
+            return redis.call('DEL', KEYS[1])
+        end
+        return 0
+        """, Long.class);
+    
+    // 是否正在同步秒杀商品
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    // 同一个商品同时只有一个线程从MySql加载
+    private final SingleFlight<Long, SeckillGoods> mySqlLoader = new SingleFlight<>(LOAD_WAIT);
+    // 已经达到限购数量的用户，key为 商品id:用户id，本地直接拒绝，不访问Redis
+    private LocalCache<String, Boolean> limitRejects;
+    // 同时从MySql加载商品的请求数
+    private ConcurrencyLimiter mySqlLimiter;
+    
+    @PostConstruct
+    public void init () {
+        limitRejects = new LocalCache<>(seckillConfig.getNearCacheSize(), seckillConfig.getLimitRejectTtl());
+        mySqlLimiter = new ConcurrencyLimiter(seckillConfig.getMySqlConcurrency(), seckillConfig.getMySqlConcurrencyTimeout());
+    }
+    
+    /**
+     * 每分钟查询一次数据库，更新Redis中的秒杀商品数据
+     * 条件为startTime < 当前时间 < endTime，售罄的商品仍然在目录中，库存计数器为0，直到秒杀结束
+     * 多个节点通过租约保证同一时间只有一个节点同步，不会交替发布目录、重复写回库存
+     */
+    @Scheduled (cron = "0 * * * * *")
+    public void refreshRedis () {
+        // 上一次同步还没结束时跳过本次同步
+        if (!refreshing.compareAndSet(false, true)) {
+            log.info("上一次同步秒杀商品还没有结束");
+            
+            return;
+        }
+        
+        String token = UUID.randomUUID().toString();
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                                         .setIfAbsent(REFRESH_LEASE_KEY, token, REFRESH_LEASE_TIME, TimeUnit.MILLISECONDS))) {
+                log.info("其它节点正在同步秒杀商品");
+                
+                return;
+            }
+            try {
+                refresh();
+            } finally {
+                stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(REFRESH_LEASE_KEY), token);
+            }
+        } finally {
+            refreshing.set(false);
+        }
+    }
+    
+    private void refresh () {
+        // 1.查询数据库中正在秒杀的商品，只按时间筛选，售罄的商品还有未支付的订单，过期后要回退库存
+        QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
+        Date date = new Date();
+        String now = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(date);
+        queryWrapper.le("startTime", now)       // 当前时间晚于开始时间
+            .ge("endTime", now);                // 当前时间早于结束时间
+        
+        List<SeckillGoods> seckillGoodsList = seckillGoodsMapper.selectList(queryWrapper);
+        Map<Long, SeckillGoods> seckillGoodsMap = new HashMap<>();
+        for (SeckillGoods seckillGood : seckillGoodsList) {
+            seckillGoodsMap.put(seckillGood.getGoodsId(), seckillGood);
+        }
+        
+        // 2.找出Redis中要下架的商品和新开始秒杀的商品
+        Set<Long> publishedGoodsIds = seckillGoodsCatalog.goodsIds();
+        Set<Long> removedGoodsIds = new HashSet<>(publishedGoodsIds);
+        removedGoodsIds.removeAll(seckillGoodsMap.keySet());
+        Set<Long> newGoodsIds = new HashSet<>(seckillGoodsMap.keySet());
+        newGoodsIds.removeAll(publishedGoodsIds);
+        
+        // 2.1 下架的商品中只有已经结束的删除库存计数器，没有结束的（开始时间被推迟或者被删除）先记录下来，结束后再删除，
+        // 期间过期的订单仍然回退到计数器中，重新上架时继续使用
+        Map<Long, Date> endTimes = new HashMap<>();
+        for (Long goodsId : removedGoodsIds) {
+            SeckillGoods removed = seckillGoodsCatalog.get(goodsId);
+            endTimes.put(goodsId, removed == null ? null : removed.getEndTime());
+        }
+        Set<Long> endedGoodsIds = new HashSet<>();
+        for (Long goodsId : removedGoodsIds) {
+            Date endTime = endTimes.get(goodsId);
+            if (endTime == null || !endTime.after(date)) {
+                endedGoodsIds.add(goodsId);
+            } else {
+                stringRedisTemplate.opsForZSet().add(WITHDRAWN_KEY, goodsId.toString(), endTime.getTime());
+            }
+        }
+        Set<String> withdrawn = stringRedisTemplate.opsForZSet().rangeByScore(WITHDRAWN_KEY, 0, date.getTime());
+        if (withdrawn != null) {
+            for (String goodsId : withdrawn) {
+                Long id = Long.valueOf(goodsId);
+                // 已经重新上架的商品使用新的结束时间，只删除记录
+                if (seckillGoodsMap.containsKey(id)) {
+                    stringRedisTemplate.opsForZSet().remove(WITHDRAWN_KEY, goodsId);
+                } else {
+                    endedGoodsIds.add(id);
+                }
+            }
+        }
+        
+        // 3.将库存发生过变化的商品和已经结束的商品的库存同步到MySql中，库存以库存计数器为准
+        Set<Long> dirtyGoodsIds = seckillStockEngine.takeDirty();
+        dirtyGoodsIds.addAll(endedGoodsIds);
+        flushStock(dirtyGoodsIds);
+        seckillStockEngine.flushed();
+        
+        log.info("同步MySql秒杀商品到Redis");
+        
+        // 4.先准备好布隆过滤器和库存计数器，再发布新的商品目录
+        seckillBloomFilter.refresh(seckillGoodsMap.keySet(), newGoodsIds);
+        for (SeckillGoods seckillGood : seckillGoodsList) {
+            // 已有的库存计数器不覆盖，同步期间的扣减不会丢失
+            seckillStockEngine.initStock(seckillGood.getGoodsId(), seckillGood.getStockCount());
+        }
+        
+        // 5.原子替换商品目录，替换期间读取的一方始终能看到完整的目录
+        seckillGoodsCatalog.publish(seckillGoodsMap);
+        
+        // 6.删除已经结束的秒杀商品的库存计数器，用户购买记录保留到秒杀结束之后，下架的商品都删除本节点的准入状态
+        for (Long goodsId : endedGoodsIds) {
+            seckillStockEngine.removeStock(goodsId, endTimes.get(goodsId));
+            stringRedisTemplate.opsForZSet().remove(WITHDRAWN_KEY, goodsId.toString());
+        }
+        for (Long goodsId : removedGoodsIds) {
+            seckillAdmission.retire(goodsId);
+        }
+        
+        // 7.数据库中的库存可能被修改过，通知所有节点清除售罄标记
+        soldOutCache.publishRestock(null);
+    }
+    
+    /**
+     * 把库存计数器中的库存批量写回MySql，每批一条UPDATE语句
+     * @param goodsIds  需要同步的商品id
+     */
+    private void flushStock (Set<Long> goodsIds) {
+        Map<Long, Integer> stockMap = seckillStockEngine.getStock(goodsIds);
+        List<SeckillGoods> seckillGoodsList = new ArrayList<>(stockMap.size());
+        for (Map.Entry<Long, Integer> entry : stockMap.entrySet()) {
+            SeckillGoods seckillGoods = new SeckillGoods();
+            seckillGoods.setGoodsId(entry.getKey());
+            seckillGoods.setStockCount(entry.getValue());
+            seckillGoodsList.add(seckillGoods);
+        }
+        
+        for (int i = 0; i < seckillGoodsList.size(); i += FLUSH_BATCH_SIZE) {
+            seckillGoodsMapper.updateStockBatch(
+                seckillGoodsList.subList(i, Math.min(i + FLUSH_BATCH_SIZE, seckillGoodsList.size())));
+        }
+    }
+    
+    /**
+     * 分页查询秒杀商品
+     * 本地缓存没有命中时查询分页和库存都不占用Dubbo线程，见respond
+     */
+    @Override
+    @SentinelResource("findPageByRedis")
+    public Page<SeckillGoods> findPageByRedis (int page, int size) {
+        return respond(findPageByRedisAsync(page, size));
+    }
+    
+    @Override
+    public SeckillGoods findSeckillGoodsByRedis (Long goodsId) {
+        return respond(findSeckillGoodsByRedisAsync(goodsId));
+    }
+    
+    private CompletableFuture<Page<SeckillGoods>> findPageByRedisAsync (int page, int size) {
+        // 通过索引只查询当前页的秒杀商品，再填充实时库存
+        return seckillGoodsCatalog.pageAsync(page, size)
+            .thenCompose(seckillGoodsPage -> fillStockAsync(seckillGoodsPage.getRecords()).thenApply(v -> seckillGoodsPage));
+    }
+    
+    private CompletableFuture<SeckillGoods> findSeckillGoodsByRedisAsync (Long goodsId) {
+        // 1.布隆过滤器判断商品是否真的存在，如果不存在直接返回
+        if (!seckillBloomFilter.mightContain(goodsId)) {
+            log.info("布隆过滤器判断商品不存在");
+            
+            return CompletableFuture.failedFuture(new BusException(CodeEnum.ORDER_EXPIRED_ERROR));
+        }
+        
+        // 2.从Redis中查询秒杀商品，查到时填充实时库存
+        return seckillGoodsCatalog.getAsync(goodsId).thenCompose(seckillGoods -> {
+            if (seckillGoods == null) {
+                return CompletableFuture.<SeckillGoods>completedFuture(null);
+            }
+            log.info("从Redis中查询商品");
+            
+            return fillStockAsync(List.of(seckillGoods)).thenApply(v -> seckillGoods);
+        });
+    }
+    
+    /**
+     * 商品对象中的库存不再随扣减更新，返回前用库存计数器中的实时库存覆盖
+     * @param seckillGoodsList  秒杀商品
+     */
+    private CompletableFuture<Void> fillStockAsync (List<SeckillGoods> seckillGoodsList) {
+        List<Long> goodsIds = new ArrayList<>(seckillGoodsList.size());
+        for (SeckillGoods seckillGoods : seckillGoodsList) {
+            goodsIds.add(seckillGoods.getGoodsId());
+        }
+        
+        return seckillStockEngine.getStockAsync(goodsIds).thenAccept(stockMap -> {
+            for (SeckillGoods seckillGoods : seckillGoodsList) {
+                Integer stockCount = stockMap.get(seckillGoods.getGoodsId());
+                if (stockCount != null) {
+                    seckillGoods.setStockCount(stockCount);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 下单
+     * 扣减库存的脚本通过非阻塞的Redis客户端执行，Dubbo线程发出请求后马上释放，Redis返回后在客户端的IO线程中完成下单，见respond
+     * 只有Redis数据丢失需要从MySql加载时才切换到seckillLoaderExecutor中执行
+     */
+    @Override
+    public Orders createOrder (Orders orders) {
+        return respond(createOrderAsync(orders));
+    }
+    
+    private CompletableFuture<Orders> createOrderAsync (Orders orders) {
+        OrderContext context;
+        try {
+            context = prepareOrder(orders);
+        } catch (BusException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Long goodsId = context.goodsId();
+        Integer num = context.num();
+        
+        // 限流，同时下单的人数太多时直接拒绝，不等待
+        if (!seckillAdmission.tryEnter(goodsId)) {
+            return CompletableFuture.failedFuture(new BusException(CodeEnum.NO_STOCK_ERROR));
+        }
+        
+        // 4.Lua脚本原子扣减库存并保存订单，不需要加锁
+        /**
+         * 设置订单5分钟过期，过期后只能拿到Redis内的key，拿不到value，
+         * 而过期时间需要回退商品库存，所以扣减库存的脚本同时保存一条只有商品id、数量和用户id的未支付订单记录，
+         * 记录的过期时间长于订单时间，订单过期后根据记录回退库存
+         */
+        return seckillStockEngine.deductAsync(orders, goodsId, num, ORDER_TTL, PENDING_TTL)
+            .thenCompose(stockCount -> {
+                if (stockCount != SeckillStockEngine.STOCK_NOT_LOADED) {
+                    return CompletableFuture.completedFuture(stockCount);
+                }
+                // 4.1 Redis中没有库存计数器，说明Redis数据丢失，从数据库中加载后重试一次
+                return loadAsync(goodsId)
+                    .thenCompose(seckillGoods -> seckillStockEngine.deductAsync(orders, goodsId, num, ORDER_TTL, PENDING_TTL));
+            })
+            .thenApply(stockCount -> completeOrder(orders, context, stockCount))
+            .whenComplete((created, e) -> seckillAdmission.leave(goodsId));
+    }
+    
+    /**
+     * 在seckillLoaderExecutor中从MySql加载商品，线程池满时和findSeckillGoodsByMySql的降级一样返回null，
+     * 重试扣减时仍然没有库存计数器，按库存不足处理
+     * @param goodsId   秒杀商品id
+     * @return          秒杀商品
+     */
+    private CompletableFuture<SeckillGoods> loadAsync (Long goodsId) {
+        try {
+            return CompletableFuture.supplyAsync(() -> self.findSeckillGoodsByMySql(goodsId), seckillLoaderExecutor);
+        } catch (RejectedExecutionException e) {
+            log.info("从MySql加载商品的线程池已满，降级处理");
+            
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+    
+    /**
+     * 扣减库存之前的检查，不满足条件时抛出异常，通过检查后生成订单对象
+     * @param orders    订单
+     * @return          下单过程中需要的数据
+     */
+    private OrderContext prepareOrder (Orders orders) {
+        CartGoods cartGoods = orders.getCartGoods().get(0);
+        Long goodsId = cartGoods.getGoodId();
+        Integer num = cartGoods.getNum();
+        if (num == null || num <= 0) {
+            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
+        }
+        
+        // 1.不在秒杀时间内的直接拒绝，库存计数器在开始前已经预热，不能只靠扣减判断
+        if (!seckillWarmUpScheduler.isOnSale(goodsId)) {
+            throw new BusException(CodeEnum.WRONG_TIME_ERROR);
+        }
+        
+        // 本节点已经知道商品售罄，直接拒绝，不访问Redis
+        if (soldOutCache.isSoldOut(goodsId)) {
+            throw new BusException(CodeEnum.NO_STOCK_ERROR);
+        }
+        // 本节点已经知道用户达到限购数量，直接拒绝
+        String limitKey = goodsId + ":" + orders.getUserId();
+        if (limitRejects.get(limitKey) != null) {
+            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
+        }
+        // 售罄标记只在扣减期间没有回退过库存时生效
+        long epoch = soldOutCache.epoch(goodsId);
+        
+        // 2.布隆过滤器判断商品是否真的存在，如果不存在直接返回
+        if (!seckillBloomFilter.mightContain(goodsId)) {
+            log.info("布隆过滤器判断商品不存在");
+            
+            throw new BusException(CodeEnum.ORDER_EXPIRED_ERROR);
+        }
+        
+        // 3.生成订单对象
+        orders.setId(IdWorker.getIdStr());      // 手动使用雪花算法生成订单ID（自动生成的会保存到数据库）
+        orders.setStatus(1);                    // 订单状态未付款
+        orders.setCreateTime(new Date());       // 订单创建时间
+        orders.setExpire(new Date(new Date().getTime() + ORDER_TTL));   // 订单过期时间
+        
+        // 计算商品的价格
+        BigDecimal price = cartGoods.getPrice();
+        BigDecimal sum = price.multiply(BigDecimal.valueOf(num));       // 防止精度丢失
+        orders.setPayment(sum);
+        
+        return new OrderContext(goodsId, num, limitKey, epoch);
+    }
+    
+    /**
+     * 根据扣减结果完成下单，扣减失败时抛出异常
+     * @param orders        订单
+     * @param context       下单过程中需要的数据
+     * @param stockCount    扣减结果
+     * @return              订单
+     */
+    private Orders completeOrder (Orders orders, OrderContext context, long stockCount) {
+        Long goodsId = context.goodsId();
+        
+        // 4.2超过限购数量，记录到本地，同一个用户再次下单时直接拒绝
+        if (stockCount == SeckillStockEngine.LIMIT_EXCEEDED) {
+            limitRejects.put(context.limitKey(), Boolean.TRUE);
+            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
+        }
+        
+        // 4.3库存不足抛异常，所有段都售罄时才记录到本地，扣减结果只是其中一段的库存，为0时其它段可能还有
+        if (stockCount == SeckillStockEngine.NO_STOCK) {
+            soldOutCache.markSoldOut(goodsId, context.epoch());
+        }
+        if (stockCount < 0) {
+            throw new BusException(CodeEnum.NO_STOCK_ERROR);
+        }
+        
+        log.info("本段库存还有：{}", stockCount);
+        
+        // 5.异步通知订单服务保存订单，不等待MySql
+        sendOrder(orders);
+        
+        return orders;
+    }
+    
+    @Override
+    public Orders findOrder (String id) {
+        return respond(reactiveRedisTemplate.opsForValue().get(id).toFuture().thenApply(value -> (Orders) value));
+    }
+    
+    /**
+     * 返回异步的结果，接口的签名不变
+     * 通过Dubbo调用时使用服务端异步，Dubbo线程马上释放，结果在完成时写回调用方，失败时调用方收到原来的BusException，
+     * 调用方既可以同步调用，也可以用Dubbo的异步调用同时发出多个请求
+     * 不是通过Dubbo调用时（例如定时任务）等待结果
+     * @param future    异步的结果
+     * @return          通过Dubbo调用时返回null，真正的结果由Dubbo返回给调用方
+     */
+    private <T> T respond (CompletableFuture<T> future) {
+        if (RpcContext.getServiceContext().getUrl() == null) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+        }
+        
+        AsyncContext asyncContext = RpcContext.startAsync();
+        future.whenComplete((value, e) -> {
+            asyncContext.signalContextSwitch();
+            if (e == null) {
+                asyncContext.write(value);
+            } else {
+                asyncContext.write(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        
+        return null;
+    }
+    
+    @Override
+    public Orders pay (String orderId) {
+        // 1.查询订单，设置支付相关数据
+        Orders order = (Orders) redisTemplate.opsForValue().get(orderId);
+        if (order == null) {
+            throw new BusException(CodeEnum.ORDER_EXPIRED_ERROR);
+        }
+        
+        // 2.取走未支付订单记录，取不到说明订单刚刚过期并且已经回退了库存
+        if (!seckillStockEngine.claimPending(orderId, order.getCartGoods().get(0).getGoodId())) {
+            throw new BusException(CodeEnum.ORDER_EXPIRED_ERROR);
+        }
+        
+        order.setStatus(2);
+        order.setPaymentTime(new Date());
+        order.setPaymentType(2);            // 支付宝支付
+        
+        // 3.从Redis中删除订单
+        redisTemplate.delete(orderId);
+        
+        // 4.通知订单服务更新订单状态
+        sendOrder(order);
+        
+        // 5.返回订单数据
+        return order;
+    }
+    
+    /**
+     * 异步发送订单消息，订单服务按订单id去重，重复发送不会重复保存
+     * @param orders    订单
+     */
+    private void sendOrder (Orders orders) {
+        rocketMQTemplate.asyncSend(SECKILL_ORDERS_QUEUE, orders, new SendCallback() {
+            @Override
+            public void onSuccess (SendResult sendResult) {
+            }
+            
+            @Override
+            public void onException (Throwable e) {
+                log.error("秒杀订单消息发送失败，订单id：{}", orders.getId(), e);
+            }
+        });
+    }
+    
+    @Override
+    public void addRedisSeckillGoods (SeckillGoods seckillGoods) {
+        seckillGoodsCatalog.put(seckillGoods);
+        seckillBloomFilter.add(seckillGoods.getGoodsId());
+        seckillStockEngine.initStock(seckillGoods.getGoodsId(), seckillGoods.getStockCount());
+        soldOutCache.publishRestock(seckillGoods.getGoodsId());
+    }
+    
+    @Override
+    @SentinelResource(value = "findSeckillGoodsByMySql", blockHandler = "mySqlBlockHandler")
+    public SeckillGoods findSeckillGoodsByMySql (Long goodsId) {
+        // 热门商品在Redis中丢失时会有大量请求同时到这里，本节点只让一个线程加载，其它线程等待它的结果
+        return mySqlLoader.execute(goodsId, () -> loadSeckillGoods(goodsId));
+    }
+    
+    /**
+     * 从MySql加载秒杀商品到Redis
+     * 开启seckill.loadLease时先抢占Redis中的租约，所有节点同时只有一个节点加载，
+     * 其它节点等待Redis中出现这个商品，最多等待seckill.loadLeaseMaxWait毫秒，占用Dubbo线程的时间远小于调用超时，
+     * 等不到时和Sentinel降级一样返回null，不再自己加载
+     * @param goodsId   秒杀商品id
+     * @return          秒杀商品，等待超时时返回null
+     */
+    private SeckillGoods loadSeckillGoods (Long goodsId) {
+        // 1.等待期间可能已经被其它线程加载
+        SeckillGoods seckillGoods = seckillGoodsCatalog.get(goodsId);
+        if (seckillGoods != null) {
+            return seckillGoods;
+        }
+        
+        if (!seckillConfig.isLoadLease()) {
+            return loadFromMySql(goodsId);
+        }
+        
+        // 2.抢到租约的节点加载
+        String leaseKey = LOAD_LEASE_KEY_PREFIX + goodsId;
+        long leaseTime = seckillConfig.getLoadLeaseTime();
+        Boolean leased = stringRedisTemplate.opsForValue().setIfAbsent(leaseKey, "1", leaseTime, TimeUnit.MILLISECONDS);
+        if (Boolean.TRUE.equals(leased)) {
+            try {
+                return loadFromMySql(goodsId);
+            } finally {
+                stringRedisTemplate.delete(leaseKey);
+            }
+        }
+        
+        // 3.其它节点正在加载，等待商品出现在Redis中
+        long deadline = System.currentTimeMillis() + Math.min(leaseTime, seckillConfig.getLoadLeaseMaxWait());
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(LOAD_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            
+            seckillGoods = seckillGoodsCatalog.get(goodsId);
+            if (seckillGoods != null) {
+                return seckillGoods;
+            }
+            // 租约已经释放但是商品没有出现，说明加载失败，由自己加载得到具体的原因
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(leaseKey))) {
+                return loadFromMySql(goodsId);
+            }
+        }
+        
+        // 4.等待超时，降级处理
+        log.info("等待其它节点加载商品超时，降级处理");
+        
+        return null;
+    }
+    
+    private SeckillGoods loadFromMySql (Long goodsId) {
+        // 4.如果没有查到商品，则从数据库中查秒杀商品，同时查询的请求太多时和Sentinel一样降级
+        if (!mySqlLimiter.tryAcquire()) {
+            log.info("从MySql查询商品的请求太多，降级处理");
+            
+            return null;
+        }
+        SeckillGoods seckillGoodsMySql;
+        try {
+            QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
+            queryWrapper.eq("goodsId", goodsId);
+            seckillGoodsMySql = seckillGoodsMapper.selectOne(queryWrapper);
+        } finally {
+            mySqlLimiter.release();
+        }
+        
+        log.info("从MySql中查询商品");
+        
+        // 5.如果数据库中查不到，返回null
+        Date now = new Date();
+        if (seckillGoodsMySql == null
+            || now.after(seckillGoodsMySql.getEndTime())
+            || now.before(seckillGoodsMySql.getStartTime())) {
+            throw new BusException(CodeEnum.WRONG_TIME_ERROR);
+        }
+        else if (seckillGoodsMySql.getStockCount() <= 0)
+        {
+            throw new BusException(CodeEnum.WRONG_NUMBER_ERROR);
+        }
+        
+        // 6.如果该商品可以在数据库中查到，说明是Redis数据丢失，将商品保存到Redis并返回该商品
+        addRedisSeckillGoods(seckillGoodsMySql);
+        
+        return seckillGoodsMySql;
+    }
+    
+    /**
+     * 降级处理
+     * @param goodsId
+     * @param blockException
+     * @return                  返回空
+     */
+    public SeckillGoods mySqlBlockHandler (Long goodsId, BlockException blockException) {
+        log.info("服务降级方法");
+        
+        return null;
+    }
+    
+    /**
+     * 下单过程中需要的数据
+     * @param goodsId   秒杀商品id
+     * @param num       购买数量
+     * @param limitKey  限购记录的key
+     * @param epoch     扣减库存之前获取的库存版本
+     */
+    private record OrderContext(Long goodsId, Integer num, String limitKey, long epoch) {}
+}
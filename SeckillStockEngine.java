@@ -0,0 +1,647 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import com.wlt.pojo.Orders;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存扣减引擎
+ * 每个秒杀商品的库存单独保存为Redis中的整数计数器，检查和扣减在一个只访问这个计数器的Lua脚本中完成，
+ * Redis单线程执行脚本保证了原子性，不再需要分布式锁
+ * <p>
+ * 超热门商品可以配置库存分段，库存平均拆分到多个计数器中，买家按订单id哈希到其中一段扣减，
+ * 这一段不够时再依次从其它段扣减，热点分散到多个key上，查询库存时把所有段加起来
+ * <p>
+ * 同一段库存的计数器、用户购买记录、未支付订单记录和订单过期标记使用相同的hash tag（{商品id}或者{商品id:段号}），
+ * Redis Cluster中落在同一个slot，扣减库存的脚本同时检查限购、写入未支付订单记录和过期标记，扣减成功就一定有记录可以回退，
+ * 不同的段可以分布在不同的节点上
+ * <p>
+ * 配置了限购的商品，同一个用户总是扣减按用户id哈希到的那一段，这一段的购买记录就是这个用户全部的购买记录，
+ * 这一段不够时不再尝试其它段，分段的商品接近售罄时个别用户可能提前买不到，但是不会超过限购数量
+ * <p>
+ * 下单的网络往返：第一次往返执行扣减脚本，第二次往返在同一个连接上合并写入订单、过期时间索引和待同步商品集合，
+ * 订单的key是订单id，和库存不在同一个slot，不能放进脚本；哈希到的那一段不够时每多尝试一段多一次往返。
+ * 第二次往返失败时按回退的流程加回库存；两次往返之间节点宕机时订单不存在、用户无法支付，
+ * 过期标记到期后照常回退库存，过期时间索引中没有这个订单时由过期事件和PendingOrderReconciler找回
+ * <p>
+ * 回退库存时同一段的订单在一个脚本中取出未支付订单记录、加回库存和回退用户购买的数量，
+ * 记录删除和库存加回是原子的，每个记录只有一个调用方能取到，同一个订单的库存最多回退一次，
+ * 脚本没有执行时记录还在，之后由过期时间索引或者PendingOrderReconciler重新回退
+ */
+@Slf4j
+@Component
+public class SeckillStockEngine
+{
+    // 库存计数器key的前缀，完整的key为 seckill:stock:{商品id}，分段时为 seckill:stock:{商品id:段号}
+    public static final String STOCK_KEY_PREFIX = "seckill:stock:";
+    // 库存发生变化、还没有同步到MySql的商品id集合
+    public static final String DIRTY_KEY = "seckill:stock:dirty";
+    // 正在同步到MySql的商品id集合，同步失败时保留，下次同步时重试
+    public static final String FLUSHING_KEY = "seckill:stock:flushing";
+    // 未支付订单的前缀，完整的key为 seckill:pending:{段}:订单id，Hash中保存商品id、数量、用户id和过期时间
+    public static final String PENDING_KEY_PREFIX = "seckill:pending:";
+    // 订单过期标记的前缀，完整的key为 seckill:expire:{段}:订单id，和订单同时过期，过期事件中带有找到未支付订单记录需要的段
+    public static final String EXPIRE_KEY_PREFIX = "seckill:expire:";
+    // 未支付订单的过期时间索引，member为未支付订单记录的key，score为过期的时间戳
+    public static final String DEADLINE_KEY = "seckill:pending:deadlines";
+    // 用户购买记录的前缀，完整的key为 seckill:bought:{段}，和这一段库存在同一个slot，Hash中field为用户id，value为已经购买的数量
+    public static final String BOUGHT_KEY_PREFIX = "seckill:bought:";
+    // 秒杀结束后用户购买记录保留的时间（毫秒），没有结束的商品从目录中移除时购买记录不会提前过期
+    private static final long LEDGER_GRACE = 1000 * 60 * 10;
+    
+    // 脚本返回值：已售罄
+    public static final long NO_STOCK = -1L;
+    // 脚本返回值：Redis中没有该商品的库存计数器
+    public static final long STOCK_NOT_LOADED = -2L;
+    // 脚本返回值：还有库存，但不够本次购买的数量
+    public static final long NOT_ENOUGH_STOCK = -3L;
+    // 脚本返回值：超过用户的限购数量
+    public static final long LIMIT_EXCEEDED = -4L;
+    
+    /**
+     * 扣减一段库存，配置了限购时检查并记录用户购买的数量，已购买的数量包括未支付的订单，订单过期后回退，
+     * 扣减成功时写入未支付订单记录和订单过期标记
+     * KEYS[1]库存计数器 KEYS[2]用户购买记录 KEYS[3]未支付订单记录 KEYS[4]订单过期标记，四个key在同一个slot
+     * ARGV[1]购买数量 ARGV[2]商品id ARGV[3]用户id ARGV[4]限购数量，0表示不限购
+     * ARGV[5]订单过期的时间戳 ARGV[6]订单过期时间（毫秒） ARGV[7]未支付订单记录过期时间（毫秒）
+     * 返回扣减后这一段的库存，或者NO_STOCK、STOCK_NOT_LOADED、NOT_ENOUGH_STOCK、LIMIT_EXCEEDED
+     */
+    private static final DefaultRedisScript<Long> DEDUCT_SCRIPT = new DefaultRedisScript<>("""
+        local stock = redis.call('GET', KEYS[1])
+        if not stock then
+            return -2
+        end
+        stock = tonumber(stock)
+        local num = tonumber(ARGV[1])
+        local limit = tonumber(ARGV[4])
+        if limit > 0 and tonumber(redis.call('HGET', KEYS[2], ARGV[3]) or '0') + num > limit then
+            return -4
+        end
+        if stock <= 0 then
+            return -1
+        end
+        if stock < num then
+            return -3
+        end
+        if limit > 0 then
+            redis.call('HINCRBY', KEYS[2], ARGV[3], num)
+        end
+        redis.call('HSET', KEYS[3], 'goodsId', ARGV[2], 'num', ARGV[1], 'userId', ARGV[3], 'deadline', ARGV[5])
+        redis.call('PEXPIRE', KEYS[3], ARGV[7])
+        redis.call('SET', KEYS[4], '1', 'PX', ARGV[6])
+        return redis.call('DECRBY', KEYS[1], num)
+        """, Long.class);
+    
+    /**
+     * 回退同一段库存的一批订单，取出未支付订单记录、加回库存、回退用户购买的数量在一个脚本中完成，
+     * 删除记录就是回退已经执行的标记，同一个订单的库存最多回退一次，也不会出现记录已经删除、库存没有加回的情况
+     * 库存计数器已经删除（秒杀已经结束）时不再加回，避免重新生成一个没有过期时间的计数器
+     * KEYS[1]库存计数器 KEYS[2]用户购买记录 KEYS[3]开始为这一段的未支付订单记录，所有key在同一个slot
+     * 返回回退的订单数，记录不存在的订单已经被支付或者回退，直接跳过
+     */
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<>("""
+        local loaded = redis.call('EXISTS', KEYS[1]) == 1
+        local returned = 0
+        for i = 3, #KEYS do
+            local pending = redis.call('HMGET', KEYS[i], 'num', 'userId')
+            if pending[1] then
+                redis.call('DEL', KEYS[i])
+                local num = tonumber(pending[1])
+                if loaded then
+                    redis.call('INCRBY', KEYS[1], num)
+                end
+                if pending[2] and pending[2] ~= '0' and redis.call('HINCRBY', KEYS[2], pending[2], -num) <= 0 then
+                    redis.call('HDEL', KEYS[2], pending[2])
+                end
+                returned = returned + 1
+            end
+        end
+        return returned
+        """, Long.class);
+    
+    /**
+     * 支付时取出并删除未支付订单记录和订单过期标记，只有一个调用方能取到，和回退同时处理同一个订单时只有一方成功
+     * KEYS[1]未支付订单记录 KEYS[2]订单过期标记
+     * 返回1，记录不存在时返回0
+     */
+    private static final DefaultRedisScript<Long> CLAIM_PENDING_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('EXISTS', KEYS[1]) == 0 then
+            return 0
+        end
+        redis.call('DEL', KEYS[1], KEYS[2])
+        return 1
+        """, Long.class);
+    
+    /**
+     * 取出待同步的商品，并入上次没有同步成功的商品中
+     * KEYS[1]待同步商品集合 KEYS[2]正在同步的商品集合
+     */
+    private static final DefaultRedisScript<List> TAKE_DIRTY_SCRIPT = new DefaultRedisScript<>("""
+        redis.call('SUNIONSTORE', KEYS[2], KEYS[1], KEYS[2])
+        redis.call('DEL', KEYS[1])
+        return redis.call('SMEMBERS', KEYS[2])
+        """, List.class);
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    /**
+     * 扣减库存，扣减成功后保存订单和未支付订单记录
+     * 分段的商品先扣减订单哈希到的那一段，不够时依次扣减其它段，一次购买的数量必须由同一段满足，
+     * 各段剩余的库存加起来够、但是没有一段够时返回NOT_ENOUGH_STOCK，秒杀商品一般每次只买一件，不会遇到
+     * 配置了限购的商品只扣减按用户id哈希到的那一段，超过限购数量时不扣减
+     * @param orders        订单
+     * @param goodsId       秒杀商品id
+     * @param num           购买数量
+     * @param orderTtl      订单过期时间（毫秒）
+     * @param pendingTtl    未支付订单记录过期时间（毫秒），要长于订单过期时间
+     * @return              扣减后这一段的库存，不是商品的总库存，小于0表示扣减失败，所有段都售罄时才返回NO_STOCK
+     */
+    public long deduct (Orders orders, Long goodsId, Integer num, long orderTtl, long pendingTtl)
+    {
+        try {
+            return deductAsync(orders, goodsId, num, orderTtl, pendingTtl).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+    
+    /**
+     * 非阻塞的deduct，每一步都在上一步的回调中执行，不占用调用线程
+     * @param orders        订单
+     * @param goodsId       秒杀商品id
+     * @param num           购买数量
+     * @param orderTtl      订单过期时间（毫秒）
+     * @param pendingTtl    未支付订单记录过期时间（毫秒），要长于订单过期时间
+     * @return              和deduct的返回值相同
+     */
+    public CompletableFuture<Long> deductAsync (Orders orders, Long goodsId, Integer num, long orderTtl, long pendingTtl)
+    {
+        // 没有用户id时不限购，不限购的商品不记录用户购买的数量
+        Long userId = orders.getUserId();
+        int limit = userId == null ? 0 : seckillConfig.purchaseLimitOf(goodsId);
+        String user = limit > 0 ? userId.toString() : "0";
+        
+        String[] args = {num.toString(), goodsId.toString(), user, String.valueOf(limit), String.valueOf(orders.getExpire().getTime()),
+                         String.valueOf(orderTtl), String.valueOf(pendingTtl)};
+        
+        // 1.依次扣减各段库存，扣减成功的那一段同时检查限购、写入未支付订单记录
+        // 限购的商品只扣减按用户id哈希到的那一段，这一段售罄时其它段可能还有，不能标记为售罄
+        List<String> slots = slots(goodsId);
+        CompletableFuture<Deducted> deducting = limit > 0
+                                                ? deductBucket(orders.getId(), List.of(slots.get(Math.floorMod(userId.hashCode(), slots.size()))),
+                                                               0, 0, args, slots.size() == 1)
+                                                : deductBucket(orders.getId(), slots, Math.floorMod(orders.getId().hashCode(), slots.size()),
+                                                               0, args, true);
+        return deducting.thenCompose(deducted -> {
+            if (deducted.remain() < 0) {
+                return CompletableFuture.completedFuture(deducted.remain());
+            }
+            
+            // 2.保存订单，失败时按回退的流程加回库存
+            String pendingKey = pendingKey(deducted.slot(), orders.getId());
+            return record(orders, goodsId, pendingKey, orderTtl)
+                .handle((v, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(deducted.remain());
+                    }
+                    return compensate(orders.getId(), deducted.slot()).<Long>thenCompose(c -> CompletableFuture.failedFuture(e));
+                })
+                .thenCompose(future -> future);
+        });
+    }
+    
+    /**
+     * 从第i段开始依次扣减，扣减成功、计数器不存在或者超过限购数量时不再尝试其它段
+     */
+    private CompletableFuture<Deducted> deductBucket (String orderId, List<String> slots, int start, int i, String[] args, boolean soldOut)
+    {
+        if (i == slots.size()) {
+            return CompletableFuture.completedFuture(new Deducted(null, soldOut ? NO_STOCK : NOT_ENOUGH_STOCK));
+        }
+        
+        String slot = slots.get((start + i) % slots.size());
+        List<String> keys = List.of(stockKey(slot), boughtKey(slot), pendingKey(slot, orderId), expireKey(slot, orderId));
+        return execute(DEDUCT_SCRIPT, keys, args).thenCompose(result -> {
+            if (result >= 0 || result == STOCK_NOT_LOADED || result == LIMIT_EXCEEDED) {
+                return CompletableFuture.completedFuture(new Deducted(slot, result));
+            }
+            return deductBucket(orderId, slots, start, i + 1, args, soldOut && result == NO_STOCK);
+        });
+    }
+    
+    /**
+     * 保存订单，加入过期时间索引和待同步商品集合，各个key分别写入，在同一个连接上合并成一次网络往返
+     * 订单使用和RedisTemplate相同的序列化方式，保证findOrder能正常读取
+     */
+    private CompletableFuture<Void> record (Orders orders, Long goodsId, String pendingKey, long orderTtl)
+    {
+        return Mono.when(reactiveRedisTemplate.opsForValue().set(orders.getId(), orders, Duration.ofMillis(orderTtl)),
+                         reactiveStringRedisTemplate.opsForZSet().add(DEADLINE_KEY, pendingKey, orders.getExpire().getTime()),
+                         reactiveStringRedisTemplate.opsForSet().add(DIRTY_KEY, goodsId.toString()))
+                   .toFuture();
+    }
+    
+    /**
+     * 保存订单失败，删除可能已经写入的订单和订单过期标记，再按回退的流程加回库存和用户购买的数量
+     * 取出未支付订单记录和加回库存在同一个脚本中，加回失败时记录还在，过期后照常回退
+     */
+    private CompletableFuture<Void> compensate (String orderId, String slot)
+    {
+        String pendingKey = pendingKey(slot, orderId);
+        return Mono.when(reactiveStringRedisTemplate.delete(orderId), reactiveStringRedisTemplate.delete(expireKey(slot, orderId)))
+                   .then(returnAsync(List.of(pendingKey), new HashSet<>()))
+                   .toFuture()
+                   .<Void>thenApply(count -> null)
+                   .exceptionally(e -> {
+                       log.error("加回库存失败，未支付订单记录：{}", pendingKey, e);
+                       return null;
+                   });
+    }
+    
+    /**
+     * 非阻塞地执行脚本，脚本访问的key都在同一个slot
+     */
+    private CompletableFuture<Long> execute (DefaultRedisScript<Long> script, List<String> keys, String... args)
+    {
+        return reactiveStringRedisTemplate.execute(script, keys, List.of(args))
+                                          .next()
+                                          .defaultIfEmpty(STOCK_NOT_LOADED)
+                                          .toFuture();
+    }
+    
+    /**
+     * 支付时取出并删除未支付订单记录和订单过期标记，不知道订单扣减的是哪一段，所有段在一次网络往返中同时尝试
+     * @param orderId   订单id
+     * @param goodsId   秒杀商品id
+     * @return          是否取到，记录不存在或者已经被回退时返回false
+     */
+    public boolean claimPending (String orderId, Long goodsId)
+    {
+        List<String> pendingKeys = Flux.fromIterable(slots(goodsId))
+                                       .flatMap(slot -> reactiveStringRedisTemplate.execute(CLAIM_PENDING_SCRIPT,
+                                                                                            List.of(pendingKey(slot, orderId), expireKey(slot, orderId)))
+                                                                                   .next()
+                                                                                   .filter(claimed -> claimed == 1)
+                                                                                   .map(claimed -> pendingKey(slot, orderId)))
+                                       .collectList()
+                                       .block();
+        if (pendingKeys == null || pendingKeys.isEmpty()) {
+            return false;
+        }
+        stringRedisTemplate.opsForZSet().remove(DEADLINE_KEY, pendingKeys.toArray());
+        
+        return true;
+    }
+    
+    /**
+     * 按未支付订单记录批量回退库存，还回到下单时扣减的那一段，同时回退用户购买的数量
+     * 和sweepExpired、pay同时处理同一个订单时只有一方能取到记录，同一段库存的订单在一个脚本中回退
+     * @param pendingKeys   未支付订单记录的key
+     * @param goodsIds      回退了库存的商品id会加入到这个集合中
+     * @return              回退的订单数
+     */
+    public int returnStock (List<String> pendingKeys, Set<Long> goodsIds)
+    {
+        if (pendingKeys.isEmpty()) {
+            return 0;
+        }
+        
+        Integer count = returnAsync(pendingKeys, goodsIds).block();
+        
+        return count == null ? 0 : count;
+    }
+    
+    /**
+     * 非阻塞的returnStock
+     * 第一次往返按段分组，每一段执行一次RETURN_SCRIPT，各段的脚本在同一个连接上合并发送；
+     * 第二次往返SADD待同步商品、ZREM过期时间索引，这一步失败时索引中残留的订单下次扫描时取不到记录，只从索引中删除
+     */
+    private Mono<Integer> returnAsync (List<String> pendingKeys, Set<Long> goodsIds)
+    {
+        Map<String, List<String>> slots = new LinkedHashMap<>();
+        for (String pendingKey : pendingKeys) {
+            String slot = slotOf(pendingKey);
+            slots.computeIfAbsent(slot, key -> {
+                List<String> keys = new ArrayList<>();
+                keys.add(stockKey(slot));
+                keys.add(boughtKey(slot));
+                return keys;
+            }).add(pendingKey);
+        }
+        
+        Set<String> returnedGoodsIds = ConcurrentHashMap.newKeySet();
+        return Flux.fromIterable(slots.entrySet())
+                   .flatMap(entry -> reactiveStringRedisTemplate.execute(RETURN_SCRIPT, entry.getValue(), List.of())
+                                                                .next()
+                                                                .doOnNext(returned -> {
+                                                                    if (returned > 0) {
+                                                                        returnedGoodsIds.add(goodsIdOf(entry.getKey()));
+                                                                    }
+                                                                }))
+                   .reduce(0L, Long::sum)
+                   .flatMap(count -> {
+                       List<Mono<?>> commands = new ArrayList<>();
+                       if (!returnedGoodsIds.isEmpty()) {
+                           commands.add(reactiveStringRedisTemplate.opsForSet().add(DIRTY_KEY, returnedGoodsIds.toArray(String[]::new)));
+                       }
+                       commands.add(reactiveStringRedisTemplate.opsForZSet().remove(DEADLINE_KEY, pendingKeys.toArray()));
+                       
+                       return Mono.when(commands).thenReturn(count.intValue());
+                   })
+                   .doOnSuccess(count -> {
+                       for (String goodsId : returnedGoodsIds) {
+                           goodsIds.add(Long.valueOf(goodsId));
+                       }
+                   });
+    }
+    
+    /**
+     * 补偿回退，记录中的过期时间已经过去但是还没有回退的订单重新回退一次
+     * 过期事件丢失并且过期时间索引中也没有这个订单时，只能靠这里找回库存
+     * @param pendingKeys   未支付订单记录的key，可以包含还没有过期的订单，会被跳过
+     * @param now           当前时间戳
+     * @param goodsIds      回退了库存的商品id会加入到这个集合中
+     * @return              回退的订单数
+     */
+    public int reconcile (List<String> pendingKeys, long now, Set<Long> goodsIds)
+    {
+        if (pendingKeys.isEmpty()) {
+            return 0;
+        }
+        
+        // 1.一次往返查询所有记录的过期时间，只保留已经过期的订单
+        List<String> expiredKeys = Flux.fromIterable(pendingKeys)
+                                       .flatMapSequential(pendingKey -> reactiveStringRedisTemplate.<String, String>opsForHash()
+                                                                                                   .get(pendingKey, "deadline")
+                                                                                                   .filter(deadline -> Long.parseLong(deadline) <= now)
+                                                                                                   .map(deadline -> pendingKey))
+                                       .collectList()
+                                       .block();
+        if (expiredKeys == null || expiredKeys.isEmpty()) {
+            return 0;
+        }
+        
+        // 2.回退
+        return returnStock(expiredKeys, goodsIds);
+    }
+    
+    /**
+     * 批量回退已经过期的未支付订单的库存，多个节点同时调用时每个订单只会被回退一次
+     * @param now       当前时间戳
+     * @param limit     最多处理的订单数
+     * @param goodsIds  回退了库存的商品id会加入到这个集合中
+     * @return          处理的订单数，等于limit时说明可能还有过期的订单
+     */
+    public int sweepExpired (long now, int limit, Set<Long> goodsIds)
+    {
+        Set<String> pendingKeys = stringRedisTemplate.opsForZSet().rangeByScore(DEADLINE_KEY, Double.NEGATIVE_INFINITY, now, 0, limit);
+        if (pendingKeys == null || pendingKeys.isEmpty()) {
+            return 0;
+        }
+        
+        // 已经被支付或者回退的订单取不到记录，只从索引中删除
+        returnStock(new ArrayList<>(pendingKeys), goodsIds);
+        
+        return pendingKeys.size();
+    }
+    
+    /**
+     * 取出库存发生过变化的商品，同步到MySql成功后需要调用flushed
+     * @return  商品id
+     */
+    public Set<Long> takeDirty ()
+    {
+        List<String> members = stringRedisTemplate.execute(TAKE_DIRTY_SCRIPT, List.of(DIRTY_KEY, FLUSHING_KEY));
+        
+        Set<Long> goodsIds = new LinkedHashSet<>();
+        if (members != null) {
+            for (String member : members) {
+                goodsIds.add(Long.valueOf(member));
+            }
+        }
+        
+        return goodsIds;
+    }
+    
+    /**
+     * 库存已经同步到MySql，清除正在同步的商品集合
+     */
+    public void flushed ()
+    {
+        stringRedisTemplate.delete(FLUSHING_KEY);
+    }
+    
+    /**
+     * 初始化库存计数器，计数器已经存在时不覆盖，防止正在进行的扣减被数据库中的旧数据覆盖
+     * 分段的商品库存平均拆分，除不尽的部分放在前面几段
+     * @param goodsId       秒杀商品id
+     * @param stockCount    库存
+     */
+    public void initStock (Long goodsId, Integer stockCount)
+    {
+        List<String> stockKeys = stockKeys(goodsId);
+        int buckets = stockKeys.size();
+        for (int i = 0; i < buckets; i++) {
+            int bucketStock = stockCount / buckets + (i < stockCount % buckets ? 1 : 0);
+            stringRedisTemplate.opsForValue().setIfAbsent(stockKeys.get(i), String.valueOf(bucketStock));
+        }
+    }
+    
+    /**
+     * 删除库存计数器，用户购买记录保留到秒杀结束后LEDGER_GRACE毫秒再过期
+     * 只在秒杀结束后调用，删除后过期的订单不再回退库存，提前下架的商品结束时间可能还没到，购买记录仍然保留到结束之后
+     * @param goodsId   秒杀商品id
+     * @param endTime   秒杀结束时间，不知道时为null，从现在开始保留LEDGER_GRACE毫秒
+     */
+    public void removeStock (Long goodsId, Date endTime)
+    {
+        stringRedisTemplate.delete(stockKeys(goodsId));
+        
+        long now = System.currentTimeMillis();
+        long expireAt = Math.max(endTime == null ? now : endTime.getTime(), now) + LEDGER_GRACE;
+        for (String slot : slots(goodsId)) {
+            stringRedisTemplate.expireAt(boughtKey(slot), new Date(expireAt));
+        }
+    }
+    
+    /**
+     * 批量查询库存，一次MGET，分段的商品把所有段加起来
+     * @param goodsIds  秒杀商品id
+     * @return          商品id -> 库存，没有计数器的商品不在结果中
+     */
+    public Map<Long, Integer> getStock (Collection<Long> goodsIds)
+    {
+        Map<Long, Integer> stockMap = new HashMap<>();
+        if (goodsIds.isEmpty()) {
+            return stockMap;
+        }
+        
+        List<Long> ids = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Long id : goodsIds) {
+            for (String stockKey : stockKeys(id)) {
+                ids.add(id);
+                keys.add(stockKey);
+            }
+        }
+        
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; values != null && i < ids.size(); i++) {
+            if (values.get(i) != null) {
+                stockMap.merge(ids.get(i), Integer.valueOf(values.get(i)), Integer::sum);
+            }
+        }
+        
+        return stockMap;
+    }
+    
+    /**
+     * 非阻塞的getStock，同样是一次MGET
+     * @param goodsIds  秒杀商品id
+     * @return          商品id -> 库存，没有计数器的商品不在结果中
+     */
+    public CompletableFuture<Map<Long, Integer>> getStockAsync (Collection<Long> goodsIds)
+    {
+        if (goodsIds.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        
+        List<Long> ids = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Long id : goodsIds) {
+            for (String stockKey : stockKeys(id)) {
+                ids.add(id);
+                keys.add(stockKey);
+            }
+        }
+        
+        return reactiveStringRedisTemplate.opsForValue().multiGet(keys).toFuture().thenApply(values -> {
+            Map<Long, Integer> stockMap = new HashMap<>();
+            for (int i = 0; values != null && i < ids.size(); i++) {
+                if (values.get(i) != null) {
+                    stockMap.merge(ids.get(i), Integer.valueOf(values.get(i)), Integer::sum);
+                }
+            }
+            return stockMap;
+        });
+    }
+    
+    /**
+     * 商品所有库存段的key，没有分段的商品只有一个key
+     * @param goodsId   秒杀商品id
+     * @return          库存计数器的key
+     */
+    public List<String> stockKeys (Long goodsId)
+    {
+        List<String> slots = slots(goodsId);
+        List<String> keys = new ArrayList<>(slots.size());
+        for (String slot : slots) {
+            keys.add(stockKey(slot));
+        }
+        
+        return keys;
+    }
+    
+    /**
+     * 商品所有库存段的hash tag，没有分段的商品只有一段，为商品id，分段的商品为 商品id:段号
+     * @param goodsId   秒杀商品id
+     * @return          hash tag，不带大括号
+     */
+    private List<String> slots (Long goodsId)
+    {
+        int buckets = seckillConfig.bucketsOf(goodsId);
+        if (buckets == 1) {
+            return List.of(goodsId.toString());
+        }
+        
+        List<String> slots = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            slots.add(goodsId + ":" + i);
+        }
+        
+        return slots;
+    }
+    
+    private static String stockKey (String slot)
+    {
+        return STOCK_KEY_PREFIX + "{" + slot + "}";
+    }
+    
+    private static String boughtKey (String slot)
+    {
+        return BOUGHT_KEY_PREFIX + "{" + slot + "}";
+    }
+    
+    private static String pendingKey (String slot, String orderId)
+    {
+        return PENDING_KEY_PREFIX + "{" + slot + "}:" + orderId;
+    }
+    
+    private static String expireKey (String slot, String orderId)
+    {
+        return EXPIRE_KEY_PREFIX + "{" + slot + "}:" + orderId;
+    }
+    
+    private static String slotOf (String key)
+    {
+        return key.substring(key.indexOf('{') + 1, key.indexOf('}'));
+    }
+    
+    private static String goodsIdOf (String slot)
+    {
+        int colon = slot.indexOf(':');
+        
+        return colon < 0 ? slot : slot.substring(0, colon);
+    }
+    
+    /**
+     * 过期的订单过期标记对应的未支付订单记录
+     * @param expiredKey    过期的key
+     * @return              未支付订单记录的key，不是订单过期标记时返回null
+     */
+    public static String pendingKeyOfExpired (String expiredKey)
+    {
+        if (!expiredKey.startsWith(EXPIRE_KEY_PREFIX)) {
+            return null;
+        }
+        
+        return PENDING_KEY_PREFIX + expiredKey.substring(EXPIRE_KEY_PREFIX.length());
+    }
+    
+    /**
+     * 一段库存的扣减结果
+     * @param slot      扣减成功的那一段的hash tag，扣减失败时为null
+     * @param remain    扣减后这一段的库存，或者扣减失败的原因
+     */
+    private record Deducted(String slot, long remain) {}
+}
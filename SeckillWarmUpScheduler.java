@@ -0,0 +1,224 @@
+package com.wlt.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.wlt.SeckillConfig;
+import com.wlt.mapper.SeckillGoodsMapper;
+import com.wlt.pojo.SeckillGoods;
+import com.wlt.redis.SeckillBloomFilter;
+import com.wlt.redis.SeckillGoodsCatalog;
+import com.wlt.redis.SeckillStockEngine;
+import com.wlt.redis.SoldOutCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀场次预热
+ * 定期读取即将开始和正在进行的秒杀场次，按每个场次的时间安排三个任务：
+ * 开始前seckill.warmUpLead毫秒预热库存计数器和布隆过滤器，开始时把商品加入商品目录，结束时下架
+ * <p>
+ * 每个节点都有自己的场次表，下单时用它判断是否在秒杀时间内，预热之后开始之前的下单不会扣减库存
+ * 预热任务每个节点都执行，写入Redis的操作都是幂等的；加入商品目录只由一个节点执行，避免重复广播清空本地缓存
+ */
+@Slf4j
+@Component
+public class SeckillWarmUpScheduler {
+    @Autowired
+    private SeckillGoodsMapper seckillGoodsMapper;
+    @Autowired
+    private SeckillStockEngine seckillStockEngine;
+    @Autowired
+    private SeckillBloomFilter seckillBloomFilter;
+    @Autowired
+    private SeckillGoodsCatalog seckillGoodsCatalog;
+    @Autowired
+    private SoldOutCache soldOutCache;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    @Autowired
+    private SeckillAdmission seckillAdmission;
+    @Lazy
+    @Autowired
+    private SeckillServiceImpl seckillService;
+    
+    // 场次开始时只有一个节点加入商品目录，完整的key为 seckill:warmup:activate:商品id:开始时间
+    private static final String ACTIVATE_KEY_PREFIX = "seckill:warmup:activate:";
+    
+    // 商品id -> 已经安排的场次
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private ThreadPoolTaskScheduler taskScheduler;
+    
+    @PostConstruct
+    public void init () {
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(2);
+        taskScheduler.setThreadNamePrefix("seckill-warm-up-");
+        taskScheduler.initialize();
+    }
+    
+    @PreDestroy
+    public void destroy () {
+        taskScheduler.shutdown();
+    }
+    
+    /**
+     * 读取场次表，安排新的场次，时间被修改过的场次重新安排
+     * 向后多看两个扫描间隔，保证每个场次在预热时间之前至少被扫描到一次
+     */
+    @Scheduled (fixedDelayString = "${seckill.warm-up-scan-interval:60000}")
+    public void scan () {
+        long now = System.currentTimeMillis();
+        long horizon = now + seckillConfig.getWarmUpLead() + seckillConfig.getWarmUpScanInterval() * 2;
+        
+        // 1.查询结束时间在现在之后、开始时间在预热范围内的商品
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        QueryWrapper<SeckillGoods> queryWrapper = new QueryWrapper<>();
+        queryWrapper.le("startTime", format.format(new Date(horizon)))
+            .gt("endTime", format.format(new Date(now)))
+            .gt("stockCount", 0);
+        List<SeckillGoods> seckillGoodsList = seckillGoodsMapper.selectList(queryWrapper);
+        
+        // 2.安排新的场次
+        Set<Long> goodsIds = new HashSet<>();
+        for (SeckillGoods seckillGoods : seckillGoodsList) {
+            goodsIds.add(seckillGoods.getGoodsId());
+            Session session = sessions.get(seckillGoods.getGoodsId());
+            if (session != null && session.sameTime(seckillGoods)) {
+                continue;
+            }
+            if (session != null) {
+                session.cancel();
+            }
+            sessions.put(seckillGoods.getGoodsId(), schedule(seckillGoods));
+        }
+        
+        // 3.场次表中已经删除或者推迟到预热范围之外的场次取消，已经结束一段时间的场次删除
+        for (Map.Entry<Long, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            if (!goodsIds.contains(entry.getKey()) && session.startTime > now) {
+                session.cancel();
+                sessions.remove(entry.getKey(), session);
+            } else if (session.endTime + seckillConfig.getWarmUpScanInterval() * 2 < now) {
+                sessions.remove(entry.getKey(), session);
+            }
+        }
+    }
+    
+    /**
+     * 商品当前是否可以下单
+     * @param goodsId   秒杀商品id
+     * @return          不在场次表中的商品返回true，由下单流程自己判断
+     */
+    public boolean isOnSale (Long goodsId) {
+        Session session = sessions.get(goodsId);
+        if (session == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        
+        return now >= session.startTime && now <= session.endTime;
+    }
+    
+    private Session schedule (SeckillGoods seckillGoods) {
+        long startTime = seckillGoods.getStartTime().getTime();
+        long endTime = seckillGoods.getEndTime().getTime();
+        long warmUpTime = startTime - seckillConfig.getWarmUpLead();
+        
+        // 已经过了的时间点马上执行
+        Session session = new Session(startTime, endTime);
+        session.warmUp = taskScheduler.schedule(() -> warmUp(seckillGoods), Instant.ofEpochMilli(warmUpTime));
+        session.activate = taskScheduler.schedule(() -> activate(seckillGoods), Instant.ofEpochMilli(startTime));
+        // 同步任务按秒比较结束时间，晚一秒下架
+        session.retire = taskScheduler.schedule(() -> retire(seckillGoods.getGoodsId()), Instant.ofEpochMilli(endTime + 1000));
+        
+        log.info("安排秒杀场次，商品id：{}，开始时间：{}，结束时间：{}",
+                 seckillGoods.getGoodsId(), seckillGoods.getStartTime(), seckillGoods.getEndTime());
+        
+        return session;
+    }
+    
+    /**
+     * 预热，库存计数器已经存在时不覆盖
+     */
+    private void warmUp (SeckillGoods seckillGoods) {
+        try {
+            seckillStockEngine.initStock(seckillGoods.getGoodsId(), seckillGoods.getStockCount());
+            seckillBloomFilter.add(seckillGoods.getGoodsId());
+        } catch (RuntimeException e) {
+            log.error("预热秒杀商品失败，商品id：{}", seckillGoods.getGoodsId(), e);
+        }
+    }
+    
+    /**
+     * 开始秒杀，加入商品目录和分页索引，并预热本节点的本地缓存
+     */
+    private void activate (SeckillGoods seckillGoods) {
+        try {
+            String key = ACTIVATE_KEY_PREFIX + seckillGoods.getGoodsId() + ":" + seckillGoods.getStartTime().getTime();
+            long ttl = Math.max(1, seckillGoods.getEndTime().getTime() - System.currentTimeMillis());
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(key, "1", ttl, TimeUnit.MILLISECONDS))) {
+                seckillGoodsCatalog.put(seckillGoods);
+                soldOutCache.publishRestock(seckillGoods.getGoodsId());
+                
+                log.info("秒杀开始，商品id：{}", seckillGoods.getGoodsId());
+            }
+            seckillGoodsCatalog.get(seckillGoods.getGoodsId());
+        } catch (RuntimeException e) {
+            log.error("秒杀商品上架失败，商品id：{}", seckillGoods.getGoodsId(), e);
+        }
+    }
+    
+    /**
+     * 秒杀结束，删除本节点的下单准入状态，由同步任务写回库存并下架商品
+     * 场次在场次表中再保留一段时间，同步任务正在执行而跳过时，结束后的下单仍然会被拒绝
+     */
+    private void retire (Long goodsId) {
+        seckillAdmission.retire(goodsId);
+        seckillService.refreshRedis();
+    }
+    
+    /**
+     * 已经安排的场次
+     */
+    private static class Session {
+        private final long startTime;
+        private final long endTime;
+        private ScheduledFuture<?> warmUp;
+        private ScheduledFuture<?> activate;
+        private ScheduledFuture<?> retire;
+        
+        Session (long startTime, long endTime) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+        
+        boolean sameTime (SeckillGoods seckillGoods) {
+            return startTime == seckillGoods.getStartTime().getTime() && endTime == seckillGoods.getEndTime().getTime();
+        }
+        
+        void cancel () {
+            warmUp.cancel(false);
+            activate.cancel(false);
+            retire.cancel(false);
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package com.wlt;
 
+import com.wlt.utils.ProviderExecutors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.dubbo.config.spring.context.annotation.EnableDubbo;
 import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 @EnableDubbo
 @RefreshScope
+@EnableScheduling       // 使用定时任务
 @EnableDiscoveryClient
 @SpringBootApplication
 @MapperScan("com.wlt.mapper")
@@ -21,5 +28,13 @@ public class ShoppingOrderServiceApplication {
 		
 		log.info("--------------- ShoppingOrderServiceApplication Success ---------------");
 	}
+	
+	// Dubbo服务的线程池，需要配置dubbo.application.executor-management-mode=isolation
+	@Bean
+	public ExecutorService ordersServiceExecutor(@Value("${provider.orders-service.virtual-threads:false}") boolean virtualThreads,
+	                                             @Value("${provider.orders-service.threads:200}") int threads,
+	                                             @Value("${provider.orders-service.queues:0}") int queues) {
+		return ProviderExecutors.create("orders-service", virtualThreads, threads, queues);
+	}
 
 }
@@ -1,12 +1,17 @@
 package com.wlt;
 
+import com.wlt.utils.ProviderExecutors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.dubbo.config.spring.context.annotation.EnableDubbo;
 import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.annotation.Bean;
+
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 @EnableDubbo
@@ -22,4 +27,12 @@ public class ShoppingPayServiceApplication {
         log.info("--------------- ShoppingOrderServiceApplication Success ---------------");
     }
     
+    // Dubbo服务的线程池，需要配置dubbo.application.executor-management-mode=isolation
+    @Bean
+    public ExecutorService zfbPayServiceExecutor (@Value ("${provider.zfb-pay-service.virtual-threads:false}") boolean virtualThreads,
+                                                  @Value ("${provider.zfb-pay-service.threads:200}") int threads,
+                                                  @Value ("${provider.zfb-pay-service.queues:0}") int queues) {
+        return ProviderExecutors.create("zfb-pay-service", virtualThreads, threads, queues);
+    }
+    
 }
@@ -1,12 +1,13 @@
 package com.wlt;
 
-import cn.hutool.bloomfilter.BitMapBloomFilter;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.wlt.utils.ProviderExecutors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.dubbo.config.spring.context.annotation.EnableDubbo;
 import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
@@ -14,6 +15,8 @@ import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.util.concurrent.ExecutorService;
+
 @Slf4j
 @EnableDubbo
 @RefreshScope
@@ -39,15 +42,21 @@ public class ShoppingSeckillServiceApplication
         return interceptor;
     }
     
-    // 布隆过滤器容器
+    // Dubbo服务的线程池，需要配置dubbo.application.executor-management-mode=isolation
     @Bean
-    public BitMapBloomFilter bloomFilter ()
+    public ExecutorService seckillServiceExecutor (@Value ("${provider.seckill-service.virtual-threads:false}") boolean virtualThreads,
+                                                   @Value ("${provider.seckill-service.threads:200}") int threads,
+                                                   @Value ("${provider.seckill-service.queues:0}") int queues)
     {
-        // 构造方法的参数决定了布隆过滤器能存放多少元素
-        // 太小了不够查，太大了占内存（布隆过滤器在内存中）
-        BitMapBloomFilter bitMapBloomFilter = new BitMapBloomFilter(1000);
-        
-        return bitMapBloomFilter;
+        return ProviderExecutors.create("seckill-service", virtualThreads, threads, queues);
+    }
+    
+    // 异步下单时Redis数据丢失，从MySql加载商品的线程池，和Dubbo线程池分开，带有界队列，满时降级
+    @Bean
+    public ExecutorService seckillLoaderExecutor (@Value ("${provider.seckill-loader.threads:50}") int threads,
+                                                  @Value ("${provider.seckill-loader.queues:1000}") int queues)
+    {
+        return ProviderExecutors.create("seckill-loader", false, threads, queues);
     }
     
 }
@@ -0,0 +1,72 @@
+package com.wlt.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 合并同一个key的并发加载
+ * 同一时间同一个key只有一个线程执行加载，其它线程等待并共用它的结果，加载结束后不保留结果
+ * 等待的线程最多等待maxWait毫秒，超时后自己加载，加载的线程卡住时不会拖住所有等待的线程
+ * @param <K>   key
+ * @param <V>   加载的结果
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final long maxWait;
+    
+    /**
+     * @param maxWait   等待其它线程加载的最长时间（毫秒）
+     */
+    public SingleFlight (long maxWait) {
+        this.maxWait = maxWait;
+    }
+    
+    /**
+     * 执行加载
+     * @param key       key
+     * @param loader    加载方法
+     * @return          加载的结果，加载方法抛出的异常会抛给所有等待的线程
+     */
+    public V execute (K key, Supplier<V> loader) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, call);
+        
+        // 1.已经有线程在加载，等待它的结果，超时后自己加载
+        if (running != null) {
+            try {
+                return running.get(maxWait, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new CompletionException(e.getCause());
+            } catch (TimeoutException e) {
+                return loader.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }
+        
+        // 2.自己加载，Error也要通知等待的线程，否则它们会一直等到超时
+        try {
+            V value = loader.get();
+            call.complete(value);
+            
+            return value;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+}
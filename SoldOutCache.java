@@ -0,0 +1,120 @@
+package com.wlt.redis;
+
+import com.wlt.SeckillConfig;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地售罄标记
+ * 商品售罄后，本节点直接在内存中拒绝后续的下单请求，不再访问Redis
+ * 库存回退或者重新加载时通过Redis发布订阅通知所有节点清除标记
+ */
+@Component
+public class SoldOutCache implements MessageListener
+{
+    // 库存回退的广播频道，消息内容为商品id，ALL表示清除所有标记
+    public static final String RESTOCK_CHANNEL = "seckill:stock:restock";
+    public static final String ALL = "*";
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private SeckillConfig seckillConfig;
+    
+    // 商品id -> 库存版本，每收到一次回退通知版本加一，收到ALL通知时清空，已经结束的商品不会一直留在这里
+    private final Map<Long, Long> epochs = new ConcurrentHashMap<>();
+    // 全部商品的库存版本，收到ALL通知时加一
+    private final AtomicLong globalEpoch = new AtomicLong();
+    // 商品id -> 售罄标记
+    private final Map<Long, Marker> soldOut = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void subscribe ()
+    {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RESTOCK_CHANNEL));
+    }
+    
+    /**
+     * 当前的库存版本，需要在访问Redis扣减库存之前获取
+     * 全部商品的版本放在高32位，单个商品的版本放在低32位，清空单个商品的版本后不会和之前的版本重复
+     * @param goodsId   秒杀商品id
+     * @return          库存版本
+     */
+    public long epoch (Long goodsId)
+    {
+        return (globalEpoch.get() << 32) + epochs.getOrDefault(goodsId, 0L);
+    }
+    
+    /**
+     * 商品是否已经售罄
+     * @param goodsId   秒杀商品id
+     * @return          标记存在、未过期并且期间没有回退过库存时返回true
+     */
+    public boolean isSoldOut (Long goodsId)
+    {
+        Marker marker = soldOut.get(goodsId);
+        if (marker == null) {
+            return false;
+        }
+        if (marker.epoch != epoch(goodsId) || System.currentTimeMillis() - marker.time > seckillConfig.getSoldOutMarkTtl()) {
+            soldOut.remove(goodsId, marker);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * 标记商品售罄
+     * 如果扣减期间收到了回退通知，版本号不一致，标记不会生效
+     * @param goodsId   秒杀商品id
+     * @param epoch     扣减库存之前获取的库存版本
+     */
+    public void markSoldOut (Long goodsId, long epoch)
+    {
+        soldOut.put(goodsId, new Marker(epoch, System.currentTimeMillis()));
+    }
+    
+    /**
+     * 通知所有节点商品库存已回退
+     * @param goodsId   秒杀商品id，为null时清除所有商品的标记
+     */
+    public void publishRestock (Long goodsId)
+    {
+        stringRedisTemplate.convertAndSend(RESTOCK_CHANNEL, goodsId == null ? ALL : goodsId.toString());
+    }
+    
+    /**
+     * 收到库存回退通知，版本号加一，清除售罄标记
+     * 每次同步秒杀商品后都会发送ALL通知，这时清空所有商品的版本，已经下架的商品随之删除
+     */
+    @Override
+    public void onMessage (Message message, byte[] pattern)
+    {
+        String body = new String(message.getBody());
+        if (ALL.equals(body)) {
+            globalEpoch.incrementAndGet();
+            epochs.clear();
+            soldOut.clear();
+            return;
+        }
+        
+        Long goodsId = Long.valueOf(body);
+        epochs.merge(goodsId, 1L, Long::sum);
+        soldOut.remove(goodsId);
+    }
+    
+    private record Marker(long epoch, long time) {}
+}
@@ -0,0 +1,39 @@
+package com.wlt.utils;
+
+/**
+ * 令牌桶限流
+ * 按固定速率生成令牌，桶满后不再增加，每个请求取走一个令牌，取不到时直接拒绝，不等待
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillTime;
+    
+    /**
+     * @param ratePerSecond     每秒生成的令牌数
+     * @param capacity          桶的容量，允许的最大突发请求数
+     */
+    public TokenBucket (double ratePerSecond, double capacity) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefillTime = System.nanoTime();
+    }
+    
+    /**
+     * 取一个令牌
+     * @return  取到时返回true
+     */
+    public synchronized boolean tryAcquire () {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillTime) * tokensPerNano);
+        lastRefillTime = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        
+        return true;
+    }
+}
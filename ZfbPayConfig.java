@@ -1,34 +1,47 @@
-package com.wlt;
-
-import com.alipay.api.AlipayClient;
-import com.alipay.api.DefaultAlipayClient;
-import lombok.Data;
-import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-@Data
-@Configuration
-@ConfigurationProperties (prefix = "alipay")
-public class ZfbPayConfig {
-    
-    private String appId;       // 应用id
-    
-    private String privateKey;  // 应用私钥
-    
-    private String publicKey;   // 支付宝公钥
-    
-    private String gateway;     // 网关
-    
-    private String notifyUrl;   // 回调网址
-    
-    private String pcNotify;    // 支付成功回调接口
-    
-    /**
-     * 设置支付宝客户端
-     */
-    @Bean
-    public AlipayClient setAlipayClient() {
-        return new DefaultAlipayClient(gateway, appId, privateKey, "json", "UTF-8", publicKey, "RSA2");
-    }
-}
+package com.wlt;
+
+import com.alipay.api.AlipayClient;
+import com.alipay.api.DefaultAlipayClient;
+import com.wlt.utils.ConcurrencyLimiter;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties (prefix = "alipay")
+public class ZfbPayConfig {
+    
+    private String appId;       // 应用id
+    
+    private String privateKey;  // 应用私钥
+    
+    private String publicKey;   // 支付宝公钥
+    
+    private String gateway;     // 网关
+    
+    private String notifyUrl;   // 回调网址
+    
+    private String pcNotify;    // 支付成功回调接口
+    
+    private int concurrency = 100;          // 同时请求支付宝的最大数量
+    
+    private long concurrencyTimeout = 1000; // 等待请求许可的最长时间（毫秒）
+    
+    /**
+     * 设置支付宝客户端
+     */
+    @Bean
+    public AlipayClient setAlipayClient() {
+        return new DefaultAlipayClient(gateway, appId, privateKey, "json", "UTF-8", publicKey, "RSA2");
+    }
+    
+    /**
+     * 请求支付宝的并发数限制
+     */
+    @Bean
+    public ConcurrencyLimiter alipayLimiter() {
+        return new ConcurrencyLimiter(concurrency, concurrencyTimeout);
+    }
+}